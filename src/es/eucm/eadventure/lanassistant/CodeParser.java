@@ -13,25 +13,31 @@ import java.util.List;
 
 public class CodeParser {
 	
-	public static void parseCode(String proyectFolder, LangManager langManager) {
+	/**
+	 * @return the number of keys found in the code
+	 */
+	public static int parseCode(String proyectFolder, LangManager langManager) {
 		if (proyectFolder == null)
-			return;
-		parseFolder(proyectFolder, langManager);
+			return 0;
+		return parseFolder(proyectFolder, langManager);
 	}
 	
-	private static void parseFolder(String folder,
+	private static int parseFolder(String folder,
 			LangManager langManager) {
 		File proyect = new File(folder);
+		int count = 0;
 		for (File file : proyect.listFiles()) {
 			if (file.isDirectory())
-				parseFolder(file.getAbsolutePath(), langManager);
+				count += parseFolder(file.getAbsolutePath(), langManager);
 			else if (file.getAbsolutePath().endsWith("java"))
-				parseFile(file, langManager);
+				count += parseFile(file, langManager);
 		}
+		return count;
 	}
 	
-	private static void parseFile(File file,
+	private static int parseFile(File file,
 			LangManager langManager) {
+		int count = 0;
 		try {
 			FileInputStream fis = new FileInputStream(file);
 			InputStreamReader isr = new InputStreamReader(fis);
@@ -63,6 +69,7 @@ public class CodeParser {
 						langManager.setKeyValue(key, "es_ES", es);
 						langManager.setKeyValue(key, "en_EN", en);
 						changed = true;
+						count++;
 						list.addMatch(new Match(key, es, en, counter + index));
 					}
 				}
@@ -120,7 +127,7 @@ public class CodeParser {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		
+		return count;
 	}
 	
 	private static class Match {
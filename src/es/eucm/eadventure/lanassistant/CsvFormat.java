@@ -0,0 +1,154 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Comma or tab separated files in UTF-8, as described in RFC 4180, with a
+ * row per key and a column per language. The first row has "key" and the
+ * identifiers of the languages. Missing values are empty fields, and empty
+ * values are quoted empty fields.
+ */
+public class CsvFormat implements LangFormat {
+
+	private char separator;
+
+	private String name;
+
+	public CsvFormat(char separator, String name) {
+		this.separator = separator;
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getExtension() {
+		return name;
+	}
+
+	public int getLanguageCount() {
+		return 0;
+	}
+
+	public void read(InputStream in, String[] languages, Handler handler) throws IOException {
+		Reader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 64 * 1024);
+		List<String> row = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		if (!readRow(reader, row, field))
+			return;
+		if (!row.isEmpty() && row.get(0) != null && row.get(0).startsWith("\uFEFF"))
+			row.set(0, row.get(0).substring(1));
+		String[] identifiers = new String[row.size() - 1];
+		for (int i = 0; i < identifiers.length; i++)
+			identifiers[i] = row.get(i + 1);
+		handler.languages(identifiers);
+		while (readRow(reader, row, field)) {
+			if (row.size() == 1 && row.get(0) == null)
+				continue;
+			String[] values = new String[identifiers.length];
+			for (int i = 0; i < values.length && i + 1 < row.size(); i++)
+				values[i] = row.get(i + 1);
+			handler.entry(row.get(0), values);
+		}
+	}
+
+	/**
+	 * Reads a row, null being an empty field that wasn't quoted
+	 *
+	 * @return false at the end of the file
+	 */
+	private boolean readRow(Reader reader, List<String> row, StringBuilder field) throws IOException {
+		row.clear();
+		int c = reader.read();
+		if (c == -1)
+			return false;
+		while (true) {
+			field.setLength(0);
+			boolean quoted = false;
+			if (c == '"') {
+				quoted = true;
+				while (true) {
+					c = reader.read();
+					if (c == -1)
+						throw new IOException("Unterminated quoted field");
+					if (c == '"') {
+						c = reader.read();
+						if (c != '"')
+							break;
+					}
+					field.append((char) c);
+				}
+			}
+			while (c != -1 && c != separator && c != '\n' && c != '\r') {
+				field.append((char) c);
+				c = reader.read();
+			}
+			row.add(quoted || field.length() > 0 ? field.toString() : null);
+			if (c == separator) {
+				c = reader.read();
+				continue;
+			}
+			if (c == '\r') {
+				c = reader.read();
+				if (c != '\n' && c != -1)
+					throw new IOException("Carriage return outside a quoted field");
+			}
+			return true;
+		}
+	}
+
+	public EntryWriter start(OutputStream out, String[] languages, String comment) throws IOException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 64 * 1024);
+		writer.write("key");
+		for (String language : languages) {
+			writer.write(separator);
+			writeField(writer, language);
+		}
+		writer.write("\r\n");
+		return new EntryWriter() {
+			public void entry(String key, String[] values) throws IOException {
+				writeField(writer, key);
+				for (String value : values) {
+					writer.write(separator);
+					if (value != null)
+						writeField(writer, value);
+				}
+				writer.write("\r\n");
+			}
+
+			public void end() throws IOException {
+				writer.flush();
+			}
+		};
+	}
+
+	/**
+	 * Writes a field, quoted if it is empty or has separators, quotes, line
+	 * breaks or spaces at its ends
+	 */
+	private void writeField(Writer writer, String field) throws IOException {
+		boolean quote = field.length() == 0 || field.charAt(0) == ' ' || field.charAt(field.length() - 1) == ' ';
+		for (int i = 0; i < field.length() && !quote; i++) {
+			char c = field.charAt(i);
+			quote = c == separator || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			writer.write(field);
+			return;
+		}
+		writer.write('"');
+		writer.write(field.replace("\"", "\"\""));
+		writer.write('"');
+	}
+}
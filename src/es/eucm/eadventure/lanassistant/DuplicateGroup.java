@@ -0,0 +1,80 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.util.Arrays;
+
+/**
+ * Keys whose values in a language are the same, or the same when case,
+ * accents, punctuation and spacing are ignored, as found by
+ * {@link LangManager#findDuplicateValues(int)}
+ */
+public class DuplicateGroup {
+
+	private String value;
+
+	private int[] keyIds;
+
+	private int size;
+
+	private boolean exact;
+
+	public DuplicateGroup(String value) {
+		this.value = value;
+		this.keyIds = new int[2];
+		this.exact = true;
+	}
+
+	/**
+	 * Reduces a value to the text that near duplicates have in common: the
+	 * letters and digits, normalized as in {@link TextMatcher#normalize(String)},
+	 * with one space between words. Values without letters or digits, as "?"
+	 * or "...", are kept as they are, so only their exact duplicates are
+	 * grouped with them.
+	 *
+	 * @param builder a builder to reuse
+	 */
+	public static String loosen(String value, StringBuilder builder) {
+		String normalized = TextMatcher.normalize(value);
+		builder.setLength(0);
+		boolean space = false;
+		for (int i = 0; i < normalized.length(); i++) {
+			char c = normalized.charAt(i);
+			if (Character.isLetterOrDigit(c)) {
+				if (space && builder.length() > 0)
+					builder.append(' ');
+				builder.append(c);
+				space = false;
+			} else
+				space = true;
+		}
+		return builder.length() == 0 ? value : builder.toString();
+	}
+
+	public void add(int keyId, String keyValue) {
+		if (size == keyIds.length)
+			keyIds = Arrays.copyOf(keyIds, size * 2);
+		keyIds[size++] = keyId;
+		exact = exact && value.equals(keyValue);
+	}
+
+	/**
+	 * @return the value of the first key of the group
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getKeyId(int index) {
+		return keyIds[index];
+	}
+
+	/**
+	 * @return true if all the values are exactly the same
+	 */
+	public boolean isExact() {
+		return exact;
+	}
+}
@@ -0,0 +1,140 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+
+/**
+ * Shows the groups of keys with duplicate values, and lets the keys chosen
+ * take the translations they lack from the other keys of their group
+ */
+public class DuplicateValuesFrame extends JFrame {
+
+	private static final long serialVersionUID = 4075209916432717346L;
+
+	public DuplicateValuesFrame(final List<DuplicateGroup> groups, final LangManager langManager, int langIndex) {
+		super("Duplicate values");
+		setLayout(new BorderLayout());
+
+		final List<DuplicateGroup> rowGroups = new ArrayList<DuplicateGroup>();
+		final List<Integer> rowKeys = new ArrayList<Integer>();
+		final Set<Integer> keysToConsolidate = new HashSet<Integer>();
+		for (DuplicateGroup group : groups) {
+			for (int i = 0; i < group.size(); i++) {
+				rowGroups.add(group);
+				rowKeys.add(group.getKeyId(i));
+				if (group.isExact())
+					keysToConsolidate.add(group.getKeyId(i));
+			}
+		}
+
+		JTable table = new JTable();
+		table.setModel(new DuplicateValuesTableModel(rowGroups, rowKeys, keysToConsolidate, langManager, langIndex));
+		table.setDefaultRenderer(String.class, new DefaultTableCellRenderer());
+		add(new JScrollPane(table), BorderLayout.CENTER);
+		setSize(700, 400);
+
+		JButton ok = new JButton("Consolidate");
+		ok.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				for (DuplicateGroup group : groups) {
+					List<Integer> keyIds = new ArrayList<Integer>();
+					for (int i = 0; i < group.size(); i++)
+						if (keysToConsolidate.contains(group.getKeyId(i)))
+							keyIds.add(group.getKeyId(i));
+					langManager.consolidate(group, keyIds);
+				}
+				setVisible(false);
+			}
+		});
+		add(ok, BorderLayout.SOUTH);
+		this.setVisible(true);
+	}
+
+	private class DuplicateValuesTableModel extends AbstractTableModel {
+
+		private static final long serialVersionUID = -2386093370409722917L;
+
+		private List<DuplicateGroup> rowGroups;
+
+		private List<Integer> rowKeys;
+
+		private Set<Integer> keysToConsolidate;
+
+		private LangManager langManager;
+
+		private int langIndex;
+
+		public DuplicateValuesTableModel(List<DuplicateGroup> rowGroups, List<Integer> rowKeys, Set<Integer> keysToConsolidate, LangManager langManager, int langIndex) {
+			this.rowGroups = rowGroups;
+			this.rowKeys = rowKeys;
+			this.keysToConsolidate = keysToConsolidate;
+			this.langManager = langManager;
+			this.langIndex = langIndex;
+		}
+		public Class<?> getColumnClass(int columnIndex) {
+			if (columnIndex == 3)
+				return Boolean.class;
+			return String.class;
+		}
+		public int getColumnCount() {
+			return 4;
+		}
+
+		public String getColumnName(int columnIndex) {
+			if (columnIndex == 0)
+				return "Key";
+			if (columnIndex == 1)
+				return "Value";
+			if (columnIndex == 2)
+				return "Duplicate";
+			if (columnIndex == 3)
+				return "consolidate?";
+			return "";
+		}
+
+		public int getRowCount() {
+			return rowKeys.size();
+		}
+
+		public Object getValueAt(int rowIndex, int columnIndex) {
+			int keyId = rowKeys.get(rowIndex);
+			if (columnIndex == 0)
+				return langManager.getKeyName(keyId);
+			if (columnIndex == 1)
+				return langManager.getValue(keyId, langIndex);
+			if (columnIndex == 2)
+				return (rowGroups.get(rowIndex).isExact() ? "exact, " : "near, ") + rowGroups.get(rowIndex).size() + " keys";
+			if (columnIndex == 3)
+				return Boolean.valueOf(keysToConsolidate.contains(keyId));
+			return null;
+		}
+
+		public boolean isCellEditable(int rowIndex, int columnIndex) {
+			return columnIndex == 3;
+		}
+
+		public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
+			if (columnIndex == 3) {
+				Boolean b = (Boolean) aValue;
+				if (b.booleanValue())
+					keysToConsolidate.add(rowKeys.get(rowIndex));
+				else
+					keysToConsolidate.remove(rowKeys.get(rowIndex));
+			}
+		}
+
+	}
+
+}
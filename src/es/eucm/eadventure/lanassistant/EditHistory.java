@@ -0,0 +1,177 @@
+package es.eucm.eadventure.lanassistant;
+
+/**
+ * Edits of values that can be undone and redone. Each edit is kept as the id
+ * of the key, the position of the language and the values before and after
+ * it, in arrays used as a ring, so the oldest edits are forgotten when there
+ * are too many or their values take too much memory. Consecutive edits of the
+ * same value are kept as one.
+ */
+public class EditHistory {
+
+	/**
+	 * Maximum number of edits kept
+	 */
+	private static final int MAX_EDITS = 1000;
+
+	/**
+	 * Maximum number of characters of the values of the edits kept
+	 */
+	private static final long MAX_CHARS = 1 << 20;
+
+	private int[] keyIds = new int[MAX_EDITS];
+
+	private int[] langIndexes = new int[MAX_EDITS];
+
+	private String[] oldValues = new String[MAX_EDITS];
+
+	private String[] newValues = new String[MAX_EDITS];
+
+	/**
+	 * Slot of the oldest edit
+	 */
+	private int first;
+
+	/**
+	 * Number of edits kept, undone or not
+	 */
+	private int size;
+
+	/**
+	 * Number of edits that can be undone, the rest can be redone
+	 */
+	private int position;
+
+	private long chars;
+
+	/**
+	 * If the last edit can be joined with the next one
+	 */
+	private boolean open;
+
+	/**
+	 * Adds an edit, forgetting the ones undone
+	 *
+	 * @param keyId the id of the key
+	 * @param langIndex the position of the language
+	 * @param oldValue the value before the edit
+	 * @param newValue the value after the edit
+	 */
+	public void record(int keyId, int langIndex, String oldValue, String newValue) {
+		if (equals(oldValue, newValue))
+			return;
+		while (size > position)
+			dropLast();
+		if (open && position > 0) {
+			int slot = slot(position - 1);
+			if (keyIds[slot] == keyId && langIndexes[slot] == langIndex) {
+				chars += length(newValue) - length(newValues[slot]);
+				newValues[slot] = newValue;
+				if (equals(oldValues[slot], newValue))
+					dropLast();
+				return;
+			}
+		}
+		if (size == MAX_EDITS)
+			dropFirst();
+		int slot = slot(size);
+		keyIds[slot] = keyId;
+		langIndexes[slot] = langIndex;
+		oldValues[slot] = oldValue;
+		newValues[slot] = newValue;
+		chars += length(oldValue) + length(newValue);
+		size++;
+		position++;
+		open = true;
+		while (chars > MAX_CHARS && size > 1)
+			dropFirst();
+	}
+
+	public boolean canUndo() {
+		return position > 0;
+	}
+
+	public boolean canRedo() {
+		return position < size;
+	}
+
+	/**
+	 * Moves back over the last edit done
+	 *
+	 * @return the slot of the edit, to get its values, or -1 if there is none
+	 */
+	public int undo() {
+		if (!canUndo())
+			return -1;
+		open = false;
+		return slot(--position);
+	}
+
+	/**
+	 * Moves forward over the last edit undone
+	 *
+	 * @return the slot of the edit, to get its values, or -1 if there is none
+	 */
+	public int redo() {
+		if (!canRedo())
+			return -1;
+		open = false;
+		return slot(position++);
+	}
+
+	public int getKeyId(int slot) {
+		return keyIds[slot];
+	}
+
+	public int getLangIndex(int slot) {
+		return langIndexes[slot];
+	}
+
+	public String getOldValue(int slot) {
+		return oldValues[slot];
+	}
+
+	public String getNewValue(int slot) {
+		return newValues[slot];
+	}
+
+	public void clear() {
+		while (size > 0)
+			dropLast();
+		first = 0;
+		open = false;
+	}
+
+	private int slot(int index) {
+		return (first + index) % MAX_EDITS;
+	}
+
+	private void dropFirst() {
+		forget(first);
+		first = (first + 1) % MAX_EDITS;
+		size--;
+		if (position > 0)
+			position--;
+	}
+
+	private void dropLast() {
+		forget(slot(size - 1));
+		size--;
+		if (position > size)
+			position = size;
+	}
+
+	private void forget(int slot) {
+		chars -= length(oldValues[slot]) + length(newValues[slot]);
+		oldValues[slot] = null;
+		newValues[slot] = null;
+	}
+
+	private static int length(String value) {
+		return value == null ? 0 : value.length();
+	}
+
+	private static boolean equals(String value1, String value2) {
+		return value1 == null ? value2 == null : value1.equals(value2);
+	}
+}
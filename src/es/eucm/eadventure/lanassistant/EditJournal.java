@@ -0,0 +1,322 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * Journal of the edits made to the languages of a folder and not saved yet,
+ * kept in the folder next to the language files, so that they can be
+ * recovered if the program ends before saving them.
+ * <p>
+ * Edits are appended to a buffer in memory, which a background thread writes
+ * to the end of the file and forces to disk, all the edits made while the
+ * previous ones were being written at once. Each record has its length and
+ * checksum, so a record left half written is detected and ignored.
+ */
+public class EditJournal {
+
+	public static final String FILE_NAME = ".langjournal";
+
+	private static final int MAGIC = 0x4C4A524E;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_LENGTH = 8;
+
+	private static final byte SET_VALUE = 1;
+
+	private static final byte ADD_KEY = 2;
+
+	private static final byte REMOVE_KEY = 3;
+
+	private static final byte ADD_LANGUAGE = 4;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Receives the edits read from the journal
+	 */
+	public interface Handler {
+
+		void setValue(String key, String identifier, String value);
+
+		void addKey(String key);
+
+		void removeKey(String key);
+
+		void addLanguage(String identifier, String comment);
+	}
+
+	private File file;
+
+	private RandomAccessFile randomAccessFile;
+
+	private FileChannel channel;
+
+	/**
+	 * Records appended and not written yet
+	 */
+	private ByteArrayOutputStream pending;
+
+	private long appended;
+
+	private long synced;
+
+	private boolean closed;
+
+	private boolean failed;
+
+	private Thread thread;
+
+	/**
+	 * Opens the journal of a folder, creating it if there is none
+	 *
+	 * @param directory the folder with the language files
+	 * @param handler receives the edits already in the journal, or null to ignore them
+	 */
+	public EditJournal(File directory, Handler handler) throws IOException {
+		this.file = new File(directory, FILE_NAME);
+		long end = file.exists() ? replay(handler) : -1;
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		channel = randomAccessFile.getChannel();
+		if (end == -1) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			channel.truncate(0);
+			channel.write(header, 0);
+			end = HEADER_LENGTH;
+		}
+		channel.truncate(end);
+		channel.position(end);
+		pending = new ByteArrayOutputStream();
+		thread = new Thread(new Runnable() {
+			public void run() {
+				writeRecords();
+			}
+		}, "Edit journal");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Reads the edits of the journal, up to the first that isn't complete
+	 *
+	 * @return the position after the last complete edit, or -1 if the file isn't a journal
+	 */
+	private long replay(Handler handler) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return -1;
+			long position = HEADER_LENGTH;
+			CRC32 crc = new CRC32();
+			while (true) {
+				byte[] record;
+				long checksum;
+				try {
+					int length = in.readInt();
+					checksum = in.readInt() & 0xFFFFFFFFL;
+					if (length <= 0 || length > file.length())
+						break;
+					record = new byte[length];
+					in.readFully(record);
+				} catch (EOFException e) {
+					break;
+				}
+				crc.reset();
+				crc.update(record);
+				if (crc.getValue() != checksum)
+					break;
+				if (handler != null)
+					apply(record, handler);
+				position += 8 + record.length;
+			}
+			return position;
+		} catch (EOFException e) {
+			return -1;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void apply(byte[] record, Handler handler) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		switch (in.readByte()) {
+		case SET_VALUE:
+			handler.setValue(readString(in), readString(in), readString(in));
+			break;
+		case ADD_KEY:
+			handler.addKey(readString(in));
+			break;
+		case REMOVE_KEY:
+			handler.removeKey(readString(in));
+			break;
+		case ADD_LANGUAGE:
+			handler.addLanguage(readString(in), readString(in));
+			break;
+		}
+	}
+
+	public void setValue(String key, String identifier, String value) {
+		append(SET_VALUE, key, identifier, value);
+	}
+
+	public void addKey(String key) {
+		append(ADD_KEY, key);
+	}
+
+	public void removeKey(String key) {
+		append(REMOVE_KEY, key);
+	}
+
+	public void addLanguage(String identifier, String comment) {
+		append(ADD_LANGUAGE, identifier, comment);
+	}
+
+	private void append(byte type, String... strings) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(type);
+			for (String string : strings)
+				writeString(out, string);
+			byte[] record = bytes.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(record);
+			synchronized (this) {
+				if (closed || failed)
+					return;
+				DataOutputStream header = new DataOutputStream(pending);
+				header.writeInt(record.length);
+				header.writeInt((int) crc.getValue());
+				pending.write(record);
+				appended++;
+				notifyAll();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		if (string == null)
+			out.writeInt(-1);
+		else {
+			byte[] bytes = string.getBytes(UTF8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length == -1)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Writes the pending records in the background, in batches, each one
+	 * forced to disk before the next
+	 */
+	private void writeRecords() {
+		while (true) {
+			byte[] batch;
+			long batchEnd;
+			synchronized (this) {
+				while (pending.size() == 0 && !closed)
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				if (pending.size() == 0)
+					return;
+				batch = pending.toByteArray();
+				pending.reset();
+				batchEnd = appended;
+			}
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(batch);
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+				channel.force(false);
+			} catch (IOException e) {
+				System.err.println("Couldn't write the edit journal " + file + ": " + e);
+				synchronized (this) {
+					failed = true;
+					notifyAll();
+				}
+				return;
+			}
+			synchronized (this) {
+				synced = batchEnd;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until the edits appended are on disk
+	 */
+	public synchronized void sync() {
+		while (synced < appended && !failed && thread.isAlive()) {
+			try {
+				wait(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Removes all the edits, once they are saved in the language files
+	 */
+	public synchronized void truncate() {
+		sync();
+		try {
+			channel.truncate(HEADER_LENGTH);
+			channel.position(HEADER_LENGTH);
+			channel.force(false);
+		} catch (IOException e) {
+			System.err.println("Couldn't truncate the edit journal " + file + ": " + e);
+		}
+	}
+
+	/**
+	 * Writes the pending edits and closes the journal
+	 *
+	 * @param keep if false, the edits are removed, as when they are discarded
+	 */
+	public void close(boolean keep) {
+		if (!keep)
+			truncate();
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			thread.join();
+			randomAccessFile.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * JSON files with the values of one language, written as an object with a
+ * member per key. When read, nested objects are taken as namespaces, so
+ * {"a": {"b": "value"}} gives the key "a.b".
+ */
+public class JsonFormat implements LangFormat {
+
+	public String getName() {
+		return "json";
+	}
+
+	public String getExtension() {
+		return "json";
+	}
+
+	public int getLanguageCount() {
+		return 1;
+	}
+
+	public void read(InputStream in, String[] languages, Handler handler) throws IOException {
+		handler.languages(languages);
+		Parser parser = new Parser(new BufferedReader(new InputStreamReader(in, "UTF-8"), 64 * 1024), handler);
+		if (parser.skipWhitespace() != '{')
+			throw parser.error("Expected an object");
+		parser.readObject("");
+		if (parser.skipWhitespace() != -1)
+			throw parser.error("Unexpected content after the object");
+	}
+
+	/**
+	 * Reads a file a character at a time, handing the string members to the
+	 * handler as they are read
+	 */
+	private static class Parser {
+
+		private Reader reader;
+
+		private Handler handler;
+
+		private int next = -2;
+
+		private int line = 1;
+
+		private StringBuilder text = new StringBuilder();
+
+		public Parser(Reader reader, Handler handler) {
+			this.reader = reader;
+			this.handler = handler;
+		}
+
+		private int peek() throws IOException {
+			if (next == -2) {
+				next = reader.read();
+				if (next == '\n')
+					line++;
+			}
+			return next;
+		}
+
+		private int read() throws IOException {
+			int c = peek();
+			next = -2;
+			return c;
+		}
+
+		/**
+		 * @return the next character that isn't whitespace, which isn't consumed
+		 */
+		public int skipWhitespace() throws IOException {
+			int c = peek();
+			while (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\uFEFF') {
+				read();
+				c = peek();
+			}
+			return c;
+		}
+
+		/**
+		 * Reads an object whose opening brace is the next character
+		 *
+		 * @param prefix the namespace of the members of the object
+		 */
+		public void readObject(String prefix) throws IOException {
+			read();
+			if (skipWhitespace() == '}') {
+				read();
+				return;
+			}
+			while (true) {
+				if (skipWhitespace() != '"')
+					throw error("Expected a member name");
+				String key = prefix + readString();
+				if (skipWhitespace() != ':')
+					throw error("Expected ':'");
+				read();
+				int c = skipWhitespace();
+				if (c == '{')
+					readObject(key + ".");
+				else if (c == '"')
+					handler.entry(key, new String[] {readString()});
+				else {
+					String literal = readLiteral();
+					handler.entry(key, new String[] {literal.equals("null") ? null : literal});
+				}
+				c = skipWhitespace();
+				read();
+				if (c == '}')
+					return;
+				if (c != ',')
+					throw error("Expected ',' or '}'");
+			}
+		}
+
+		private String readString() throws IOException {
+			read();
+			text.setLength(0);
+			while (true) {
+				int c = read();
+				if (c == -1)
+					throw error("Unterminated string");
+				if (c == '"')
+					return text.toString();
+				if (c != '\\') {
+					text.append((char) c);
+					continue;
+				}
+				c = read();
+				switch (c) {
+				case 'n':
+					text.append('\n');
+					break;
+				case 't':
+					text.append('\t');
+					break;
+				case 'r':
+					text.append('\r');
+					break;
+				case 'b':
+					text.append('\b');
+					break;
+				case 'f':
+					text.append('\f');
+					break;
+				case 'u':
+					int code = 0;
+					for (int i = 0; i < 4; i++) {
+						int digit = Character.digit(read(), 16);
+						if (digit == -1)
+							throw error("Malformed \\u escape");
+						code = code * 16 + digit;
+					}
+					text.append((char) code);
+					break;
+				case -1:
+					throw error("Unterminated string");
+				default:
+					text.append((char) c);
+				}
+			}
+		}
+
+		/**
+		 * Reads a number, true, false or null
+		 */
+		private String readLiteral() throws IOException {
+			StringBuilder literal = new StringBuilder();
+			for (int c = peek(); c != -1 && (Character.isLetterOrDigit(c) || c == '-' || c == '+' || c == '.'); c = peek())
+				literal.append((char) read());
+			if (literal.length() == 0)
+				throw error(peek() == '[' ? "Arrays aren't supported" : "Expected a value");
+			return literal.toString();
+		}
+
+		public IOException error(String message) {
+			return new IOException(message + " at line " + line);
+		}
+	}
+
+	public EntryWriter start(OutputStream out, String[] languages, String comment) throws IOException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 64 * 1024);
+		writer.write('{');
+		return new EntryWriter() {
+			private boolean first = true;
+
+			public void entry(String key, String[] values) throws IOException {
+				if (values[0] == null)
+					return;
+				writer.write(first ? "\n  " : ",\n  ");
+				first = false;
+				escape(writer, key);
+				writer.write(": ");
+				escape(writer, values[0]);
+			}
+
+			public void end() throws IOException {
+				writer.write(first ? "}\n" : "\n}\n");
+				writer.flush();
+			}
+		};
+	}
+
+	private static void escape(Writer writer, String text) throws IOException {
+		writer.write('"');
+		int start = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\')
+				continue;
+			writer.write(text, start, i - start);
+			start = i + 1;
+			if (c == '"')
+				writer.write("\\\"");
+			else if (c == '\\')
+				writer.write("\\\\");
+			else if (c == '\n')
+				writer.write("\\n");
+			else if (c == '\t')
+				writer.write("\\t");
+			else if (c == '\r')
+				writer.write("\\r");
+			else
+				writer.write(String.format("\\u%04x", (int) c));
+		}
+		writer.write(text, start, text.length() - start);
+		writer.write('"');
+	}
+}
@@ -0,0 +1,550 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Sorted index of the keys of a {@link LangManager}.
+ * <p>
+ * Every key string is interned once to a dense integer id, which the
+ * {@link Language} objects use to store their values in plain arrays. Ids are
+ * never reused, so a removed key that is added again gets its old id back.
+ * <p>
+ * The order of the keys in the index is kept in a randomized binary search
+ * tree where every node knows the size of its subtree. Insertion, removal,
+ * position of a key and key at a position are therefore O(log n), instead of
+ * the sort after every insertion the key list used to need.
+ * <p>
+ * A {@link Snapshot} shares the tree as it is. Nodes are only changed in place
+ * while they were created after the last snapshot; older nodes are copied
+ * first, so each change copies at most the path from the root to the nodes
+ * it touches, and the snapshots never see later changes.
+ */
+public class KeyIndex implements Iterable<String> {
+
+	/**
+	 * Key string of each id
+	 */
+	private String[] names;
+
+	private int idCount;
+
+	/**
+	 * Open addressing hash table with the id + 1 of the keys, 0 for empty slots
+	 */
+	private int[] slots;
+
+	/**
+	 * Ids of the keys that are in the index
+	 */
+	private BitSet live;
+
+	private int size;
+
+	private Node root;
+
+	private Random random;
+
+	/**
+	 * Incremented by each snapshot. Nodes created in an older epoch may be
+	 * shared with a snapshot and aren't changed in place.
+	 */
+	private int epoch;
+
+	/**
+	 * Last snapshot taken, while the keys stay the same
+	 */
+	private Snapshot snapshot;
+
+	public KeyIndex() {
+		this.names = new String[64];
+		this.slots = new int[128];
+		this.live = new BitSet();
+		this.random = new Random();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(String key) {
+		int id = getId(key);
+		return id != -1 && live.get(id);
+	}
+
+	public boolean containsId(int id) {
+		return live.get(id);
+	}
+
+	/**
+	 * @param key the key string
+	 * @return the id of the key, or -1 if it was never interned
+	 */
+	public int getId(String key) {
+		int mask = slots.length - 1;
+		for (int slot = hash(key) & mask; slots[slot] != 0; slot = (slot + 1) & mask)
+			if (names[slots[slot] - 1].equals(key))
+				return slots[slot] - 1;
+		return -1;
+	}
+
+	/**
+	 * Gets the id of a key, creating a new one if needed. Interning a key
+	 * doesn't add it to the index.
+	 *
+	 * @param key the key string
+	 * @return the id of the key
+	 */
+	public int intern(String key) {
+		int mask = slots.length - 1;
+		int slot = hash(key) & mask;
+		for (; slots[slot] != 0; slot = (slot + 1) & mask)
+			if (names[slots[slot] - 1].equals(key))
+				return slots[slot] - 1;
+		if (idCount == names.length)
+			names = Arrays.copyOf(names, idCount * 2);
+		names[idCount] = key;
+		slots[slot] = ++idCount;
+		if (idCount * 2 > slots.length)
+			rehash();
+		return idCount - 1;
+	}
+
+	/**
+	 * @param id the id of a key
+	 * @return the key string
+	 */
+	public String getName(int id) {
+		return names[id];
+	}
+
+	/**
+	 * @return the number of ids handed out, and so the length a value column must have
+	 */
+	public int getIdCount() {
+		return idCount;
+	}
+
+	/**
+	 * Adds a key to the index
+	 *
+	 * @param key the key to add
+	 * @return true if the key wasn't in the index
+	 */
+	public boolean add(String key) {
+		int id = intern(key);
+		if (live.get(id))
+			return false;
+		live.set(id);
+		size++;
+		snapshot = null;
+		root = insert(root, new Node(key, id, epoch));
+		return true;
+	}
+
+	/**
+	 * Adds several keys at once. When the number of new keys is big compared
+	 * with the size of the index, the tree is rebuilt in linear time from the
+	 * merge of the current keys and the sorted new ones.
+	 *
+	 * @param newKeys the keys to add, in any order and maybe repeated
+	 * @return the number of keys that weren't in the index
+	 */
+	public int addAll(Collection<String> newKeys) {
+		List<String> added = new ArrayList<String>();
+		for (String key : newKeys) {
+			int id = intern(key);
+			if (!live.get(id)) {
+				live.set(id);
+				added.add(key);
+			}
+		}
+		size += added.size();
+		if (!added.isEmpty())
+			snapshot = null;
+		if (added.size() * 8 < size()) {
+			for (String key : added)
+				root = insert(root, new Node(key, getId(key), epoch));
+		} else {
+			Collections.sort(added);
+			int[] sorted = new int[size()];
+			int j = 0, k = 0;
+			List<Node> stack = new ArrayList<Node>();
+			Node next = first(root, stack);
+			while (next != null || j < added.size()) {
+				if (next != null && (j == added.size() || next.key.compareTo(added.get(j)) < 0)) {
+					sorted[k++] = next.id;
+					next = next(stack);
+				} else
+					sorted[k++] = getId(added.get(j++));
+			}
+			root = build(sorted, 0, sorted.length);
+		}
+		return added.size();
+	}
+
+	/**
+	 * Removes a key from the index. The key keeps its id.
+	 *
+	 * @param key the key to remove
+	 * @return true if the key was in the index
+	 */
+	public boolean remove(String key) {
+		int id = getId(key);
+		if (id == -1 || !live.get(id))
+			return false;
+		live.clear(id);
+		size--;
+		snapshot = null;
+		root = delete(root, key);
+		return true;
+	}
+
+	public void clear() {
+		live.clear();
+		size = 0;
+		snapshot = null;
+		root = null;
+	}
+
+	/**
+	 * @return an immutable view of the keys in the index now, which can be
+	 *         read from other threads while the index changes
+	 */
+	public Snapshot snapshot() {
+		if (snapshot == null) {
+			snapshot = new Snapshot(root, size, names);
+			epoch++;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @param index position of the key in the sorted order
+	 * @return the key in that position
+	 */
+	public String get(int index) {
+		return nodeAt(index).key;
+	}
+
+	/**
+	 * @param index position of the key in the sorted order
+	 * @return the id of the key in that position
+	 */
+	public int getIdAt(int index) {
+		return nodeAt(index).id;
+	}
+
+	/**
+	 * @return the ids of the keys in the index, in the order of the keys
+	 */
+	public int[] toIdArray() {
+		int[] ids = new int[size];
+		int i = 0;
+		List<Node> stack = new ArrayList<Node>();
+		for (Node node = first(root, stack); node != null; node = next(stack))
+			ids[i++] = node.id;
+		return ids;
+	}
+
+	/**
+	 * @param ids a set of ids
+	 * @return the ids of the set that are in the index, in the order of their
+	 *         keys. A small set is sorted by itself instead of going through
+	 *         all the keys.
+	 */
+	public int[] toIdArray(BitSet ids) {
+		BitSet subset = (BitSet) ids.clone();
+		subset.and(live);
+		int count = subset.cardinality();
+		int[] result = new int[count];
+		if (count > size / 8) {
+			int i = 0;
+			List<Node> stack = new ArrayList<Node>();
+			for (Node node = first(root, stack); node != null; node = next(stack))
+				if (subset.get(node.id))
+					result[i++] = node.id;
+		} else {
+			String[] keys = new String[count];
+			int i = 0;
+			for (int id = subset.nextSetBit(0); id >= 0; id = subset.nextSetBit(id + 1))
+				keys[i++] = names[id];
+			Arrays.sort(keys);
+			for (i = 0; i < count; i++)
+				result[i] = getId(keys[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * @param key the key to look for
+	 * @return the position of the key in the sorted order, or -1 if it isn't in the index
+	 */
+	public int indexOf(String key) {
+		if (!contains(key))
+			return -1;
+		int index = 0;
+		Node node = root;
+		while (node != null) {
+			int comp = key.compareTo(node.key);
+			if (comp < 0)
+				node = node.left;
+			else if (comp == 0)
+				return index + size(node.left);
+			else {
+				index += size(node.left) + 1;
+				node = node.right;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Iterates the keys in sorted order
+	 */
+	public Iterator<String> iterator() {
+		final List<Node> stack = new ArrayList<Node>();
+		final Node head = first(root, stack);
+		return new Iterator<String>() {
+			private Node next = head;
+
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			public String next() {
+				if (next == null)
+					throw new NoSuchElementException();
+				String key = next.key;
+				next = KeyIndex.next(stack);
+				return key;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private static int hash(String key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int id = 0; id < idCount; id++) {
+			int slot = hash(names[id]) & mask;
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			slots[slot] = id + 1;
+		}
+	}
+
+	private Node nodeAt(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		Node node = root;
+		while (true) {
+			int left = size(node.left);
+			if (index < left)
+				node = node.left;
+			else if (index == left)
+				return node;
+			else {
+				index -= left + 1;
+				node = node.right;
+			}
+		}
+	}
+
+	private static Node first(Node root, List<Node> stack) {
+		for (Node node = root; node != null; node = node.left)
+			stack.add(node);
+		return next(stack);
+	}
+
+	/**
+	 * In order traversal step, with the pending nodes in the stack
+	 */
+	private static Node next(List<Node> stack) {
+		if (stack.isEmpty())
+			return null;
+		Node node = stack.remove(stack.size() - 1);
+		for (Node child = node.right; child != null; child = child.left)
+			stack.add(child);
+		return node;
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+
+	/**
+	 * @return the node, or a copy of it if it may be shared with a snapshot
+	 */
+	private Node writable(Node node) {
+		if (node.epoch == epoch)
+			return node;
+		Node copy = new Node(node.key, node.id, epoch);
+		copy.left = node.left;
+		copy.right = node.right;
+		copy.size = node.size;
+		return copy;
+	}
+
+	private Node insert(Node node, Node newNode) {
+		if (random.nextInt(size(node) + 1) == 0) {
+			Node[] halves = split(node, newNode.key);
+			newNode.left = halves[0];
+			newNode.right = halves[1];
+			newNode.update();
+			return newNode;
+		}
+		node = writable(node);
+		if (newNode.key.compareTo(node.key) < 0)
+			node.left = insert(node.left, newNode);
+		else
+			node.right = insert(node.right, newNode);
+		node.update();
+		return node;
+	}
+
+	/**
+	 * Splits a tree in the nodes lower than the key and the nodes greater than it
+	 */
+	private Node[] split(Node node, String key) {
+		if (node == null)
+			return new Node[] {null, null};
+		node = writable(node);
+		if (key.compareTo(node.key) < 0) {
+			Node[] halves = split(node.left, key);
+			node.left = halves[1];
+			node.update();
+			halves[1] = node;
+			return halves;
+		}
+		Node[] halves = split(node.right, key);
+		node.right = halves[0];
+		node.update();
+		halves[0] = node;
+		return halves;
+	}
+
+	private Node delete(Node node, String key) {
+		if (node == null)
+			return null;
+		int comp = key.compareTo(node.key);
+		if (comp == 0)
+			return join(node.left, node.right);
+		node = writable(node);
+		if (comp < 0)
+			node.left = delete(node.left, key);
+		else
+			node.right = delete(node.right, key);
+		node.update();
+		return node;
+	}
+
+	/**
+	 * Joins two trees where all the keys of the first one are lower than the keys of the second one
+	 */
+	private Node join(Node left, Node right) {
+		if (left == null)
+			return right;
+		if (right == null)
+			return left;
+		if (random.nextInt(left.size + right.size) < left.size) {
+			left = writable(left);
+			left.right = join(left.right, right);
+			left.update();
+			return left;
+		}
+		right = writable(right);
+		right.left = join(left, right.left);
+		right.update();
+		return right;
+	}
+
+	private Node build(int[] sorted, int from, int to) {
+		if (from >= to)
+			return null;
+		int middle = (from + to) >>> 1;
+		Node node = new Node(names[sorted[middle]], sorted[middle], epoch);
+		node.left = build(sorted, from, middle);
+		node.right = build(sorted, middle + 1, to);
+		node.update();
+		return node;
+	}
+
+	/**
+	 * The keys of the index at one moment. The names of the ids are read from
+	 * the array of the index, whose existing entries never change.
+	 */
+	public static class Snapshot {
+
+		private final Node root;
+
+		private final int size;
+
+		private final String[] names;
+
+		private Snapshot(Node root, int size, String[] names) {
+			this.root = root;
+			this.size = size;
+			this.names = names;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @param id the id of a key in the snapshot
+		 * @return the key string
+		 */
+		public String getName(int id) {
+			return names[id];
+		}
+
+		/**
+		 * @return the ids of the keys, in the order of the keys
+		 */
+		public int[] toIdArray() {
+			int[] ids = new int[size];
+			int i = 0;
+			List<Node> stack = new ArrayList<Node>();
+			for (Node node = first(root, stack); node != null; node = next(stack))
+				ids[i++] = node.id;
+			return ids;
+		}
+	}
+
+	private static class Node {
+		final String key;
+		final int id;
+		final int epoch;
+		Node left;
+		Node right;
+		int size;
+
+		public Node(String key, int id, int epoch) {
+			this.key = key;
+			this.id = id;
+			this.epoch = epoch;
+			this.size = 1;
+		}
+
+		void update() {
+			size = 1 + KeyIndex.size(left) + KeyIndex.size(right);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * Tree model with the namespaces of the keys of a {@link LangManager}, taken
+ * from its {@link KeyTrie}. Only namespaces are shown, not the keys.
+ */
+public class KeyTreeModel implements TreeModel {
+
+	private LangManager langManager;
+
+	private KeyTrie.Node root;
+
+	private List<TreeModelListener> listeners;
+
+	public KeyTreeModel() {
+		this.listeners = new ArrayList<TreeModelListener>();
+	}
+
+	public void setLangManager(LangManager langManager) {
+		this.langManager = langManager;
+		reload();
+	}
+
+	/**
+	 * Shows the namespaces again, after the keys of the manager changed
+	 */
+	public void reload() {
+		root = langManager == null ? null : langManager.getKeyTrie().getRoot();
+		TreeModelEvent event = new TreeModelEvent(this, root == null ? null : new TreePath(root));
+		for (TreeModelListener listener : new ArrayList<TreeModelListener>(listeners))
+			listener.treeStructureChanged(event);
+	}
+
+	public Object getRoot() {
+		return root;
+	}
+
+	public Object getChild(Object parent, int index) {
+		return ((KeyTrie.Node) parent).getNamespaces().get(index);
+	}
+
+	public int getChildCount(Object parent) {
+		return ((KeyTrie.Node) parent).getNamespaces().size();
+	}
+
+	public boolean isLeaf(Object node) {
+		return getChildCount(node) == 0;
+	}
+
+	public void valueForPathChanged(TreePath path, Object newValue) {
+	}
+
+	public int getIndexOfChild(Object parent, Object child) {
+		if (parent == null || child == null)
+			return -1;
+		return ((KeyTrie.Node) parent).getNamespaces().indexOf(child);
+	}
+
+	public void addTreeModelListener(TreeModelListener l) {
+		listeners.add(l);
+	}
+
+	public void removeTreeModelListener(TreeModelListener l) {
+		listeners.remove(l);
+	}
+}
@@ -0,0 +1,207 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Keys organized by their dot separated segments, so that "Operation.Foo.Bar"
+ * is under the namespace "Operation.Foo", which is under "Operation". Every
+ * node knows how many keys there are under it, and the keys of a namespace
+ * are found without looking at the rest. Equal segments are taken from the
+ * {@link StringPool}, so the segments shared by many keys are stored once.
+ */
+public class KeyTrie {
+
+	private Node root;
+
+	public KeyTrie() {
+		this.root = new Node(null, "");
+	}
+
+	public Node getRoot() {
+		return root;
+	}
+
+	/**
+	 * @param key the key
+	 * @param id the id of the key
+	 */
+	public void add(String key, int id) {
+		Node node = root;
+		int start = 0;
+		while (true) {
+			int end = key.indexOf('.', start);
+			String segment = key.substring(start, end == -1 ? key.length() : end);
+			node = node.getOrAddChild(segment);
+			if (end == -1)
+				break;
+			start = end + 1;
+		}
+		if (node.id == -1) {
+			node.id = id;
+			for (Node parent = node; parent != null; parent = parent.parent)
+				parent.count++;
+		}
+	}
+
+	public void remove(String key) {
+		Node node = find(key);
+		if (node == null || node.id == -1)
+			return;
+		node.id = -1;
+		for (Node parent = node; parent != null; parent = parent.parent)
+			parent.count--;
+		while (node.parent != null && node.count == 0 && node.children == null) {
+			node.parent.children.remove(node.segment);
+			node.parent.namespaces = null;
+			if (node.parent.children.isEmpty()) {
+				node.parent.children = null;
+				if (node.parent.parent != null)
+					node.parent.parent.namespaces = null;
+			}
+			node = node.parent;
+		}
+	}
+
+	/**
+	 * @param namespace a key or a namespace, or the empty string for the root
+	 * @return the node, or null if there is no such key or namespace
+	 */
+	public Node find(String namespace) {
+		Node node = root;
+		if (namespace.equals(""))
+			return node;
+		int start = 0;
+		while (node != null) {
+			int end = namespace.indexOf('.', start);
+			String segment = namespace.substring(start, end == -1 ? namespace.length() : end);
+			node = node.children == null ? null : node.children.get(segment);
+			if (end == -1)
+				break;
+			start = end + 1;
+		}
+		return node;
+	}
+
+	/**
+	 * @return the number of keys in a namespace, including the key with its
+	 *         same name if there is one
+	 */
+	public int count(String namespace) {
+		Node node = find(namespace);
+		return node == null ? 0 : node.count;
+	}
+
+	/**
+	 * @return the ids of the keys in a namespace, sorted by key
+	 */
+	public int[] getIds(String namespace, KeyIndex index) {
+		Node node = find(namespace);
+		BitSet ids = new BitSet();
+		if (node != null)
+			collect(node, ids);
+		return index.toIdArray(ids);
+	}
+
+	private static void collect(Node node, BitSet ids) {
+		if (node.id != -1)
+			ids.set(node.id);
+		if (node.children != null)
+			for (Node child : node.children.values())
+				collect(child, ids);
+	}
+
+	/**
+	 * A segment of the keys: a key, a namespace or both
+	 */
+	public static class Node {
+
+		private Node parent;
+
+		private String segment;
+
+		/**
+		 * Children by segment, or null if there are none
+		 */
+		private TreeMap<String, Node> children;
+
+		/**
+		 * Children that have children, or null if they must be found again
+		 */
+		private List<Node> namespaces;
+
+		/**
+		 * Id of the key that ends in this node, or -1 if none does
+		 */
+		private int id = -1;
+
+		/**
+		 * Number of keys in this node and under it
+		 */
+		private int count;
+
+		private Node(Node parent, String segment) {
+			this.parent = parent;
+			this.segment = segment;
+		}
+
+		private Node getOrAddChild(String segment) {
+			if (children == null) {
+				children = new TreeMap<String, Node>();
+				if (parent != null)
+					parent.namespaces = null;
+			}
+			Node child = children.get(segment);
+			if (child == null) {
+				segment = StringPool.intern(segment);
+				child = new Node(this, segment);
+				children.put(segment, child);
+			}
+			return child;
+		}
+
+		public String getSegment() {
+			return segment;
+		}
+
+		public Node getParent() {
+			return parent;
+		}
+
+		/**
+		 * @return the full name of the namespace, the empty string for the root
+		 */
+		public String getNamespace() {
+			if (parent == null)
+				return "";
+			if (parent.parent == null)
+				return segment;
+			return parent.getNamespace() + "." + segment;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the children that are namespaces of other keys
+		 */
+		public List<Node> getNamespaces() {
+			if (namespaces == null) {
+				namespaces = new ArrayList<Node>();
+				if (children != null)
+					for (Node child : children.values())
+						if (child.children != null)
+							namespaces.add(child);
+			}
+			return namespaces;
+		}
+
+		@Override
+		public String toString() {
+			return (parent == null ? "All keys" : segment) + " (" + count + ")";
+		}
+	}
+}
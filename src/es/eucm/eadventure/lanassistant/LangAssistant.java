@@ -12,8 +12,14 @@ public class LangAssistant {
 	
 	public static final boolean INCLUDE_WEEV = false;
 	
+	/**
+	 * Opens the main window, or runs a {@link LangCli} command if there are arguments
+	 */
 	public static void main(String[] args) {
-		new MainWindow();
+		if (args.length > 0)
+			LangCli.main(args);
+		else
+			new MainWindow();
 	}
 	
 }
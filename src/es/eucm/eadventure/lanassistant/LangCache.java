@@ -0,0 +1,263 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of the language files of a folder, kept in the folder next
+ * to them, so that files that didn't change since the last time they were
+ * parsed can be read from memory mapped data instead of parsing their XML.
+ * <p>
+ * The snapshot has a pool with the strings of all the files, so keys and
+ * values repeated between languages are stored and decoded once, followed by
+ * the size and modification date of each file, which must match the file on
+ * disk for its entries to be used, its comment and its entries as pairs of
+ * positions in the pool.
+ * <p>
+ * The mapping of a snapshot is kept until {@link #close()}, which must be
+ * called before the snapshot is written again, since some systems, as
+ * Windows, don't let a mapped file be replaced.
+ */
+public class LangCache {
+
+	public static final String FILE_NAME = ".langcache";
+
+	private static final int MAGIC = 0x4C414E47;
+
+	private static final int VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private ByteBuffer buffer;
+
+	/**
+	 * Position in the buffer of each string of the pool
+	 */
+	private int[] offsets;
+
+	/**
+	 * Strings of the pool already decoded
+	 */
+	private String[] strings;
+
+	/**
+	 * Position in the buffer of the description of each file, by file name
+	 */
+	private Map<String, Integer> files;
+
+	private LangCache(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.files = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Maps the snapshot of a folder
+	 *
+	 * @param directory the folder with the language files
+	 * @return the snapshot, or null if there is none or it can't be used
+	 */
+	public static LangCache open(File directory) {
+		File file = new File(directory, FILE_NAME);
+		if (!file.isFile())
+			return null;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				LangCache cache = new LangCache(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+				return cache.readIndex() ? cache : null;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			System.err.println("Ignoring damaged language cache " + file + ": " + e);
+		}
+		return null;
+	}
+
+	private boolean readIndex() {
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+			return false;
+		int poolSize = buffer.getInt();
+		offsets = new int[poolSize];
+		strings = new String[poolSize];
+		for (int i = 0; i < poolSize; i++) {
+			offsets[i] = buffer.position();
+			buffer.position(buffer.position() + 4 + buffer.getInt(buffer.position()));
+		}
+		int fileCount = buffer.getInt();
+		for (int i = 0; i < fileCount; i++) {
+			int position = buffer.position();
+			files.put(getString(buffer.getInt()), position);
+			buffer.position(position + 4 + 8 + 8 + 4);
+			int entryCount = buffer.getInt();
+			buffer.position(buffer.position() + entryCount * 8);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the contents of a language file from the snapshot. Can be called
+	 * from several threads at the same time.
+	 *
+	 * @param file the XML file of the language
+	 * @param keysOnly if true, the values aren't decoded and the contents have
+	 *        null values, or empty strings for the values that are empty
+	 * @return the contents of the file, or null if the snapshot doesn't have
+	 *         them or the file changed since they were taken
+	 */
+	public LanguageFile read(File file, boolean keysOnly) {
+		Integer position = files.get(file.getName());
+		if (position == null)
+			return null;
+		try {
+			ByteBuffer data = buffer.duplicate();
+			data.position(position.intValue() + 4);
+			long length = data.getLong();
+			long lastModified = data.getLong();
+			if (length != file.length() || lastModified != file.lastModified())
+				return null;
+			LanguageFile languageFile = new LanguageFile(file, length, lastModified, true);
+			int comment = data.getInt();
+			if (comment != -1)
+				languageFile.comment(getString(comment));
+			int entryCount = data.getInt();
+			for (int i = 0; i < entryCount; i++) {
+				String key = getString(data.getInt());
+				int value = data.getInt();
+				if (!keysOnly)
+					languageFile.entry(key, getString(value));
+				else
+					languageFile.entry(key, buffer.getInt(offsets[value]) == 0 ? "" : null);
+			}
+			return languageFile;
+		} catch (RuntimeException e) {
+			System.err.println("Ignoring damaged language cache entry for " + file + ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Releases the mapping of the snapshot. It can't be read afterwards, and
+	 * it mustn't be read meanwhile.
+	 */
+	public void close() {
+		ByteBuffer mapped = buffer;
+		buffer = null;
+		strings = null;
+		if (mapped != null)
+			unmap(mapped);
+	}
+
+	/**
+	 * Unmaps a buffer now instead of when it is garbage collected. This needs
+	 * an internal API of the JVM, so if it isn't available the buffer is left
+	 * to the garbage collector.
+	 */
+	private static void unmap(ByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+		} catch (Exception e) {
+			System.err.println("Couldn't release the language cache: " + e);
+		}
+	}
+
+	private String getString(int index) {
+		String string = strings[index];
+		if (string == null) {
+			ByteBuffer data = buffer.duplicate();
+			data.position(offsets[index]);
+			byte[] bytes = new byte[data.getInt()];
+			data.get(bytes);
+			string = new String(bytes, UTF8);
+			strings[index] = string;
+		}
+		return string;
+	}
+
+	/**
+	 * Writes the snapshot of a folder with the contents of its files. The
+	 * snapshot is only an optimization, so errors are reported but not thrown.
+	 *
+	 * @param directory the folder with the language files
+	 * @param languageFiles the contents of the files, as they are on disk
+	 */
+	public static void write(File directory, Collection<LanguageFile> languageFiles) {
+		Map<String, Integer> poolIndexes = new HashMap<String, Integer>();
+		List<String> pool = new ArrayList<String>();
+		for (LanguageFile languageFile : languageFiles) {
+			addToPool(languageFile.getFile().getName(), poolIndexes, pool);
+			addToPool(languageFile.getComment(), poolIndexes, pool);
+			for (int i = 0; i < languageFile.getEntryCount(); i++) {
+				addToPool(languageFile.getKey(i), poolIndexes, pool);
+				addToPool(languageFile.getValue(i), poolIndexes, pool);
+			}
+		}
+
+		File file = new File(directory, FILE_NAME);
+		File temp = new File(directory, FILE_NAME + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(pool.size());
+				for (String string : pool) {
+					byte[] bytes = string.getBytes(UTF8);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+				out.writeInt(languageFiles.size());
+				for (LanguageFile languageFile : languageFiles) {
+					out.writeInt(poolIndexes.get(languageFile.getFile().getName()));
+					out.writeLong(languageFile.getLength());
+					out.writeLong(languageFile.getLastModified());
+					out.writeInt(languageFile.getComment() == null ? -1 : poolIndexes.get(languageFile.getComment()));
+					out.writeInt(languageFile.getEntryCount());
+					for (int i = 0; i < languageFile.getEntryCount(); i++) {
+						out.writeInt(poolIndexes.get(languageFile.getKey(i)));
+						out.writeInt(poolIndexes.get(languageFile.getValue(i)));
+					}
+				}
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			System.err.println("Couldn't write the language cache " + file + ": " + e);
+			temp.delete();
+		}
+	}
+
+	private static void addToPool(String string, Map<String, Integer> poolIndexes, List<String> pool) {
+		if (string != null && !poolIndexes.containsKey(string)) {
+			poolIndexes.put(string, pool.size());
+			pool.add(string);
+		}
+	}
+}
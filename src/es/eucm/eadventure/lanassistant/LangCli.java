@@ -0,0 +1,388 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Command line interface, used instead of the windows when the program is
+ * given arguments, so the files can be checked from scripts. It doesn't use
+ * any window class.
+ * <p>
+ * The output has a record per line, with its fields separated by tabs and the
+ * kind of record first. Tabs, line breaks and backslashes in the fields are
+ * escaped with a backslash.
+ */
+public class LangCli {
+
+	private static final String USAGE =
+			"Usage: LangAssistant <command> <arguments>\n" +
+			"  load <folder>...                   loads the language files and shows what was loaded\n" +
+			"  validate <folder>...               checks that the values of all the languages match\n" +
+			"  stats <folder>...                  shows the number of keys and values of each language\n" +
+			"  export <folder> [file]             writes the keys and values, to the standard output if there's no file\n" +
+			"  import <folder> <file>             changes the values that are different in the file and saves them\n" +
+			"  parse-source <folder> <source>     moves the texts in the code to the language files\n" +
+			"  unused-scan <folder> <source>      lists the keys that don't appear in the code\n" +
+			"Options of export and import:\n" +
+			"  --format=<name>                    the format of the file, by default given by its extension\n" +
+			"  --languages=<id>,<id>...           the languages of the values\n" +
+			"  --dry-run                          lists the changes of an import without saving them\n";
+
+	/**
+	 * Placeholders that must be in all the translations of a value
+	 */
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\{[0-9]+\\}|%([0-9]+\\$)?[-#+ 0,(]*[0-9]*(\\.[0-9]+)?[a-zA-Z%]");
+
+	/**
+	 * Exit status when the command worked and found no problems
+	 */
+	public static final int OK = 0;
+
+	/**
+	 * Exit status when validation found problems
+	 */
+	public static final int INVALID = 1;
+
+	/**
+	 * Exit status when the command couldn't be run
+	 */
+	public static final int ERROR = 2;
+
+	private PrintStream out;
+
+	private PrintStream err;
+
+	public LangCli(PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+	}
+
+	public static void main(String[] args) {
+		System.exit(new LangCli(System.out, System.err).run(args));
+	}
+
+	/**
+	 * Runs a command
+	 *
+	 * @param args the command and its arguments
+	 * @return the exit status
+	 */
+	public int run(String[] args) {
+		List<String> arguments = new ArrayList<String>();
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (!arg.startsWith("--"))
+				arguments.add(arg);
+			else if (equals == -1)
+				options.put(arg.substring(2), "");
+			else
+				options.put(arg.substring(2, equals), arg.substring(equals + 1));
+		}
+		if (arguments.size() < 2) {
+			err.print(USAGE);
+			return ERROR;
+		}
+		String command = arguments.get(0);
+		boolean severalFolders = command.equals("load") || command.equals("validate") || command.equals("stats");
+		String[] folders = severalFolders ? arguments.subList(1, arguments.size()).toArray(new String[0]) : new String[] {arguments.get(1)};
+		for (String folder : folders) {
+			if (!new File(folder).isDirectory()) {
+				err.println("Not a folder: " + folder);
+				return ERROR;
+			}
+		}
+		try {
+			if (command.equals("load"))
+				return load(folders);
+			if (command.equals("validate"))
+				return validate(folders);
+			if (command.equals("stats"))
+				return stats(folders);
+			if (command.equals("export") && arguments.size() <= 3)
+				return export(folders[0], arguments.size() == 3 ? arguments.get(2) : null, options);
+			if (command.equals("import") && arguments.size() == 3)
+				return importFile(folders[0], arguments.get(2), options);
+			if (command.equals("parse-source") && arguments.size() == 3)
+				return parseSource(folders[0], arguments.get(2));
+			if (command.equals("unused-scan") && arguments.size() == 3)
+				return unusedScan(folders[0], arguments.get(2));
+		} catch (IOException e) {
+			err.println(e);
+			return ERROR;
+		}
+		err.print(USAGE);
+		return ERROR;
+	}
+
+	private int load(String[] folders) {
+		long start = System.nanoTime();
+		LangManager[] managers = LangManager.load(true, false, folders);
+		long millis = (System.nanoTime() - start) / 1000000;
+		for (int i = 0; i < managers.length; i++) {
+			print("folder", folders[i], String.valueOf(managers[i].getKeyCount()), String.valueOf(managers[i].getLangIDs().length));
+			for (String identifier : managers[i].getLangIDs())
+				print("language", folders[i], identifier);
+		}
+		print("millis", String.valueOf(millis));
+		return OK;
+	}
+
+	/**
+	 * Reports the files that couldn't be read, the values missing or empty in
+	 * some language, and the values whose placeholders aren't the same as in
+	 * the first language. Only unreadable files and placeholders make the
+	 * validation fail.
+	 */
+	private int validate(String[] folders) {
+		LangManager[] managers = LangManager.load(false, false, folders);
+		int errors = 0;
+		int warnings = 0;
+		for (int f = 0; f < folders.length; f++) {
+			LangManager manager = managers[f];
+			for (File file : new File(folders[f]).listFiles()) {
+				if (LanguageFile.isLanguageFile(file) && manager.getLanguageIndex(LanguageFile.getIdentifier(file)) == -1) {
+					print("error", folders[f], "unreadable", file.getName());
+					errors++;
+				}
+			}
+			String[] languages = manager.getLangIDs();
+			for (int i = 0; i < manager.getKeyCount(); i++) {
+				int keyId = manager.getKeyId(i);
+				String key = manager.getKey(i);
+				List<String> reference = null;
+				for (int lang = 0; lang < languages.length; lang++) {
+					String value = manager.getValue(keyId, lang);
+					if (value == null || value.equals("")) {
+						print("warning", folders[f], value == null ? "missing" : "empty", languages[lang], key);
+						warnings++;
+						continue;
+					}
+					List<String> placeholders = getPlaceholders(value);
+					if (reference == null)
+						reference = placeholders;
+					else if (!reference.equals(placeholders)) {
+						print("error", folders[f], "placeholders", languages[lang], key);
+						errors++;
+					}
+				}
+			}
+		}
+		print("errors", String.valueOf(errors));
+		print("warnings", String.valueOf(warnings));
+		return errors == 0 ? OK : INVALID;
+	}
+
+	private static List<String> getPlaceholders(String value) {
+		if (value.indexOf('{') == -1 && value.indexOf('%') == -1)
+			return Collections.emptyList();
+		List<String> placeholders = new ArrayList<String>();
+		Matcher matcher = PLACEHOLDER.matcher(value);
+		while (matcher.find())
+			placeholders.add(matcher.group());
+		Collections.sort(placeholders);
+		return placeholders;
+	}
+
+	private int stats(String[] folders) {
+		LangManager[] managers = LangManager.load(true, false, folders);
+		for (int f = 0; f < folders.length; f++) {
+			LangManager manager = managers[f];
+			print("keys", folders[f], String.valueOf(manager.getKeyCount()));
+			String[] languages = manager.getLangIDs();
+			for (int lang = 0; lang < languages.length; lang++)
+				print("language", folders[f], languages[lang], String.valueOf(manager.getTranslatedCount(lang)), String.format(Locale.ROOT, "%.2f", manager.getCompleteness(lang)));
+		}
+		print("pool", String.valueOf(StringPool.size()), String.valueOf(StringPool.getLastLoadSavedBytes()));
+		return OK;
+	}
+
+	/**
+	 * Writes the keys and values in a format, given by the --format option or
+	 * the extension of the file, tab separated values by default. The
+	 * languages are given by the --languages option, separated by commas, or
+	 * are all the languages that fit in the format.
+	 */
+	private int export(String folder, String fileName, Map<String, String> options) throws IOException {
+		LangFormat format = getFormat(fileName, options, "tsv");
+		if (format == null)
+			return ERROR;
+		LangManager manager = LangManager.load(true, false, folder)[0];
+		String[] languages = getLanguages(format, manager, fileName, options, false);
+		if (languages == null)
+			return ERROR;
+		if (fileName == null) {
+			manager.export(format, out, languages);
+			return OK;
+		}
+		OutputStream file = new BufferedOutputStream(new FileOutputStream(fileName), 64 * 1024);
+		try {
+			print("keys", String.valueOf(manager.export(format, file, languages)));
+		} finally {
+			file.close();
+		}
+		return OK;
+	}
+
+	/**
+	 * Reads a file in a format, as in {@link #export(String, String, Map)},
+	 * and lists the values that are different from the ones in the folder.
+	 * Unless the --dry-run option is given, the values are changed and the
+	 * language files saved.
+	 */
+	private int importFile(String folder, String fileName, Map<String, String> options) throws IOException {
+		LangFormat format = getFormat(fileName, options, null);
+		if (format == null)
+			return ERROR;
+		LangManager manager = LangManager.load(true, false, folder)[0];
+		String[] languages = getLanguages(format, manager, fileName, options, true);
+		if (languages == null)
+			return ERROR;
+		List<LangManager.ValueChange> changes;
+		InputStream in = new BufferedInputStream(new FileInputStream(fileName), 64 * 1024);
+		try {
+			changes = manager.diff(format, in, languages);
+		} finally {
+			in.close();
+		}
+		for (LangManager.ValueChange change : changes)
+			print("change", change.getIdentifier(), change.getKey(), change.getNewValue());
+		print("changes", String.valueOf(changes.size()));
+		if (!options.containsKey("dry-run")) {
+			manager.applyChanges(changes);
+			print("saved", String.valueOf(manager.saveChanges()));
+		}
+		return OK;
+	}
+
+	private LangFormat getFormat(String fileName, Map<String, String> options, String defaultName) {
+		String name = options.get("format");
+		LangFormat format;
+		if (name != null)
+			format = LangFormats.get(name);
+		else if (fileName != null)
+			format = LangFormats.forFile(new File(fileName));
+		else
+			format = LangFormats.get(defaultName);
+		if (format == null)
+			err.println("Unknown format, use --format with one of " + getFormatNames());
+		return format;
+	}
+
+	private static String getFormatNames() {
+		StringBuilder names = new StringBuilder();
+		for (LangFormat format : LangFormats.getFormats())
+			names.append(names.length() == 0 ? "" : ", ").append(format.getName());
+		return names.toString();
+	}
+
+	/**
+	 * Gets the languages of the values of a file, from the --languages option,
+	 * from the name of the file for the formats with one language, or the
+	 * first languages of the manager
+	 *
+	 * @param reading if true, the language of a file with one language is
+	 *        never guessed, as the wrong one would be overwritten
+	 * @return the languages, or null if they can't be known
+	 */
+	private String[] getLanguages(LangFormat format, LangManager manager, String fileName, Map<String, String> options, boolean reading) {
+		String[] available = manager.getLangIDs();
+		String[] languages;
+		if (options.get("languages") != null)
+			languages = options.get("languages").split(",");
+		else if (format.getLanguageCount() == 0)
+			languages = available;
+		else if (format.getLanguageCount() == 1 && fileName != null && manager.getLanguageIndex(LangFormats.getBaseName(new File(fileName))) != -1)
+			languages = new String[] {LangFormats.getBaseName(new File(fileName))};
+		else if (available.length >= format.getLanguageCount() && !(reading && format.getLanguageCount() == 1))
+			languages = Arrays.copyOf(available, format.getLanguageCount());
+		else
+			languages = new String[0];
+		if (format.getLanguageCount() > 0 && languages.length != format.getLanguageCount()) {
+			err.println("The format " + format.getName() + " needs " + format.getLanguageCount() + (format.getLanguageCount() == 1 ? " language" : " languages") + ", give them with --languages");
+			return null;
+		}
+		return languages;
+	}
+
+	/**
+	 * Replaces the texts in the code by their keys, as the "Parse source code"
+	 * button does, and saves the language files
+	 */
+	private int parseSource(String folder, String source) {
+		if (!new File(source).isDirectory()) {
+			err.println("Not a folder: " + source);
+			return ERROR;
+		}
+		LangManager manager = LangManager.load(false, false, folder)[0];
+		int count = CodeParser.parseCode(source, manager);
+		int saved = manager.saveChanges();
+		print("keys", String.valueOf(count));
+		print("saved", String.valueOf(saved));
+		return OK;
+	}
+
+	private int unusedScan(String folder, String source) {
+		if (!new File(source).isDirectory()) {
+			err.println("Not a folder: " + source);
+			return ERROR;
+		}
+		LangManager manager = LangManager.load(true, false, folder)[0];
+		List<String> unusedKeys = UnusedKeyRemover.findUnusedKeys(source, manager);
+		for (String key : unusedKeys)
+			print("unused", key);
+		print("count", String.valueOf(unusedKeys.size()));
+		return OK;
+	}
+
+	private void print(String... fields) {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0)
+				line.append('\t');
+			line.append(escape(fields[i]));
+		}
+		out.println(line);
+	}
+
+	/**
+	 * Escapes the tabs, line breaks and backslashes of a field, null being an empty field
+	 */
+	private static String escape(String field) {
+		if (field == null)
+			return "";
+		if (field.indexOf('\t') == -1 && field.indexOf('\n') == -1 && field.indexOf('\r') == -1 && field.indexOf('\\') == -1)
+			return field;
+		StringBuilder escaped = new StringBuilder(field.length() + 8);
+		for (int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			if (c == '\t')
+				escaped.append("\\t");
+			else if (c == '\n')
+				escaped.append("\\n");
+			else if (c == '\r')
+				escaped.append("\\r");
+			else if (c == '\\')
+				escaped.append("\\\\");
+			else
+				escaped.append(c);
+		}
+		return escaped.toString();
+	}
+}
@@ -0,0 +1,89 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.InvalidPropertiesFormatException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming reader for the XML property files of the languages, the format
+ * written by {@link java.util.Properties#storeToXML}. The entries are handed to
+ * a {@link Handler} while the file is read, so no intermediate
+ * {@link java.util.Properties} is built, and the properties DTD is never
+ * resolved.
+ */
+public class LangFileReader {
+
+	/**
+	 * Receives the contents of a file, in the order they appear in it
+	 */
+	public interface Handler {
+
+		void comment(String comment);
+
+		void entry(String key, String value);
+	}
+
+	/**
+	 * Factories aren't guaranteed to be thread safe, and files may be read
+	 * from several threads, so each thread gets its own
+	 */
+	private static ThreadLocal<XMLInputFactory> factory = new ThreadLocal<XMLInputFactory>() {
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+			return factory;
+		}
+	};
+
+	/**
+	 * Creates a reader for other XML files, with the same settings
+	 */
+	static XMLStreamReader createReader(InputStream is) throws XMLStreamException {
+		return factory.get().createXMLStreamReader(is);
+	}
+
+	public static void read(File file, Handler handler) throws IOException {
+		InputStream is = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+		try {
+			read(is, handler);
+		} finally {
+			is.close();
+		}
+	}
+
+	public static void read(InputStream is, Handler handler) throws IOException {
+		try {
+			XMLStreamReader reader = createReader(is);
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() != XMLStreamConstants.START_ELEMENT)
+						continue;
+					String name = reader.getLocalName();
+					if (name.equals("entry")) {
+						String key = reader.getAttributeValue(null, "key");
+						if (key == null)
+							throw new InvalidPropertiesFormatException("Entry without key at line " + reader.getLocation().getLineNumber());
+						handler.entry(key, reader.getElementText());
+					} else if (name.equals("comment"))
+						handler.comment(reader.getElementText());
+					else if (!name.equals("properties"))
+						throw new InvalidPropertiesFormatException("Unexpected element " + name + " at line " + reader.getLocation().getLineNumber());
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new InvalidPropertiesFormatException(e);
+		}
+	}
+}
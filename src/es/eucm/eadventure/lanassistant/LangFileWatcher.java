@@ -0,0 +1,108 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the folders of the language files and tells a listener which of
+ * them had XML files created, modified or deleted. Events that arrive close
+ * together, as when a file is written in several steps, are reported once.
+ */
+public class LangFileWatcher {
+
+	/**
+	 * Time to wait for more events before reporting a change
+	 */
+	private static final long QUIET_MILLIS = 300;
+
+	public interface Listener {
+
+		/**
+		 * Called from the watcher thread
+		 *
+		 * @param directory a folder where language files changed
+		 */
+		void filesChanged(File directory);
+	}
+
+	private WatchService watchService;
+
+	private Map<WatchKey, File> directories;
+
+	private Listener listener;
+
+	private Thread thread;
+
+	public LangFileWatcher(Listener listener) throws IOException {
+		this.listener = listener;
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.directories = new HashMap<WatchKey, File>();
+	}
+
+	public void watch(String directory) throws IOException {
+		File file = new File(directory);
+		WatchKey key = file.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		synchronized (directories) {
+			directories.put(key, file);
+		}
+	}
+
+	public void start() {
+		thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) {
+						Set<File> changed = new LinkedHashSet<File>();
+						poll(watchService.take(), changed);
+						for (WatchKey key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS); key != null; key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS))
+							poll(key, changed);
+						for (File directory : changed)
+							listener.filesChanged(directory);
+					}
+				} catch (InterruptedException e) {
+				} catch (ClosedWatchServiceException e) {
+				}
+			}
+		}, "Language file watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void poll(WatchKey key, Set<File> changed) {
+		File directory;
+		synchronized (directories) {
+			directory = directories.get(key);
+		}
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (directory == null)
+				continue;
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+				changed.add(directory);
+			else if (((Path) event.context()).toString().endsWith(".xml"))
+				changed.add(directory);
+		}
+		key.reset();
+	}
+
+	public void stop() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (thread != null)
+			thread.interrupt();
+	}
+}
@@ -0,0 +1,126 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Streaming writer for the XML property files of the languages. The output can
+ * be read by {@link java.util.Properties#loadFromXML} and {@link LangFileReader}.
+ * <p>
+ * Entries are written as they are given, with no intermediate map, and
+ * {@link #write(File, LangSnapshot, int)} gives them in the order of the keys,
+ * so saving a file twice gives the same bytes and a change to one value
+ * changes one line of the file.
+ */
+public class LangFileWriter {
+
+	private Writer out;
+
+	public LangFileWriter(Writer out) {
+		this.out = out;
+	}
+
+	/**
+	 * Writes the values of a language to its file, in the order of the keys.
+	 * The file is written aside and then moved over the old one, so a failure
+	 * never leaves half a file.
+	 *
+	 * @param snapshot the keys and values to write
+	 * @param langIndex the position of the language in the snapshot
+	 */
+	public static void write(File file, LangSnapshot snapshot, int langIndex) throws IOException {
+		File temp = new File(file.getAbsolutePath() + ".tmp");
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"), 64 * 1024);
+		try {
+			LangFileWriter writer = new LangFileWriter(out);
+			writer.start(snapshot.getComment(langIndex));
+			for (int keyId : snapshot.getKeyIds()) {
+				String value = snapshot.getValue(keyId, langIndex);
+				if (value != null)
+					writer.entry(snapshot.getKeyName(keyId), value);
+			}
+			writer.end();
+		} finally {
+			out.close();
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	public void start(String comment) throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+		out.write("<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n");
+		out.write("<properties>\n");
+		if (comment != null) {
+			out.write("<comment>");
+			escape(out, comment, false);
+			out.write("</comment>\n");
+		}
+	}
+
+	public void entry(String key, String value) throws IOException {
+		out.write("<entry key=\"");
+		escape(out, key, true);
+		out.write("\">");
+		escape(out, value, false);
+		out.write("</entry>\n");
+	}
+
+	public void end() throws IOException {
+		out.write("</properties>\n");
+		out.flush();
+	}
+
+	/**
+	 * Writes a text escaping the XML markup. Carriage returns, and tabs and
+	 * line feeds inside attributes, are written as references so that they
+	 * aren't normalized when the file is read.
+	 */
+	static void escape(Writer out, String text, boolean attribute) throws IOException {
+		int start = 0;
+		for (int i = 0; i < text.length(); i++) {
+			String replacement;
+			switch (text.charAt(i)) {
+			case '&':
+				replacement = "&amp;";
+				break;
+			case '<':
+				replacement = "&lt;";
+				break;
+			case '>':
+				replacement = "&gt;";
+				break;
+			case '"':
+				replacement = attribute ? "&quot;" : null;
+				break;
+			case '\r':
+				replacement = "&#13;";
+				break;
+			case '\n':
+				replacement = attribute ? "&#10;" : null;
+				break;
+			case '\t':
+				replacement = attribute ? "&#9;" : null;
+				break;
+			default:
+				replacement = null;
+			}
+			if (replacement != null) {
+				out.write(text, start, i - start);
+				out.write(replacement);
+				start = i + 1;
+			}
+		}
+		out.write(text, start, text.length() - start);
+	}
+}
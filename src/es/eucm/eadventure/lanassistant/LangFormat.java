@@ -0,0 +1,85 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Format of the files used to exchange the keys and values with other tools.
+ * Files are read and written an entry at a time, so the memory used doesn't
+ * depend on their size. Some formats have the values of one language, some
+ * the values of a source and a target language, and some any number of
+ * languages.
+ *
+ * @see LangFormats
+ */
+public interface LangFormat {
+
+	/**
+	 * Receives the contents of a file, in the order they appear in it
+	 */
+	public interface Handler {
+
+		/**
+		 * Called before the first entry
+		 *
+		 * @param identifiers the languages of the values of the entries, null
+		 *        for the languages that aren't known
+		 */
+		void languages(String[] identifiers);
+
+		/**
+		 * @param values the values of the key in each language, null if the
+		 *        file has no value for it
+		 */
+		void entry(String key, String[] values);
+	}
+
+	/**
+	 * Writes the entries of a file
+	 */
+	public interface EntryWriter {
+
+		/**
+		 * @param values the values of the key in each language, null if there is none
+		 */
+		void entry(String key, String[] values) throws IOException;
+
+		/**
+		 * Finishes the file and flushes the stream, without closing it
+		 */
+		void end() throws IOException;
+	}
+
+	/**
+	 * @return the name used to choose the format, such as "json"
+	 */
+	String getName();
+
+	/**
+	 * @return the extension of the files of the format, without the dot
+	 */
+	String getExtension();
+
+	/**
+	 * @return the number of languages in a file, 0 if there can be any
+	 */
+	int getLanguageCount();
+
+	/**
+	 * Reads a file
+	 *
+	 * @param in the contents of the file
+	 * @param languages the languages of the values, for the formats whose files don't tell them
+	 */
+	void read(InputStream in, String[] languages, Handler handler) throws IOException;
+
+	/**
+	 * Starts writing a file
+	 *
+	 * @param out where the file is written
+	 * @param languages the languages of the values that will be given
+	 * @param comment a description of the file, or null
+	 */
+	EntryWriter start(OutputStream out, String[] languages, String comment) throws IOException;
+}
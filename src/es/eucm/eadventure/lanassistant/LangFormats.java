@@ -0,0 +1,61 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.File;
+
+/**
+ * The formats that the keys and values can be exported to and imported from
+ */
+public class LangFormats {
+
+	private static final LangFormat[] FORMATS = {
+			new XmlPropertiesFormat(),
+			new PropertiesFormat(),
+			new JsonFormat(),
+			new CsvFormat(',', "csv"),
+			new CsvFormat('\t', "tsv"),
+			new XliffFormat(),
+			new PoFormat()
+	};
+
+	public static LangFormat[] getFormats() {
+		return FORMATS.clone();
+	}
+
+	/**
+	 * @param name the name of the format
+	 * @return the format, or null if there is none with that name
+	 */
+	public static LangFormat get(String name) {
+		for (LangFormat format : FORMATS)
+			if (format.getName().equalsIgnoreCase(name))
+				return format;
+		return null;
+	}
+
+	/**
+	 * @return the format of a file, by its extension, or null if it isn't known
+	 */
+	public static LangFormat forFile(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot == -1)
+			return null;
+		String extension = name.substring(dot + 1);
+		if (extension.equalsIgnoreCase("xliff"))
+			extension = "xlf";
+		for (LangFormat format : FORMATS)
+			if (format.getExtension().equalsIgnoreCase(extension))
+				return format;
+		return null;
+	}
+
+	/**
+	 * @return the name of a file without its extension, which for the formats
+	 *         with one language is usually the identifier of the language
+	 */
+	public static String getBaseName(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return dot == -1 ? name : name.substring(0, dot);
+	}
+}
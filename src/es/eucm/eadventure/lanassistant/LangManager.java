@@ -1,145 +1,752 @@
 package es.eucm.eadventure.lanassistant;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.InvalidPropertiesFormatException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.PatternSyntaxException;
 
 public class LangManager {
 
-	private List<String> allKeys;
+	private KeyIndex allKeys;
 	
-	private List<String> keys;
+	/**
+	 * Ids of the keys that match the current search, or null if all the keys are shown
+	 */
+	private volatile int[] keys;
 	
 	private List<Language> langs;
+
+	/**
+	 * Position in langs of each language, by identifier
+	 */
+	private Map<String, Integer> langIndexes;
 	
 	private File directory;
 	
-	private List<String> modifiedKeys;
+	/**
+	 * Ids of the keys added or changed since the files were loaded
+	 */
+	private BitSet modifiedKeys;
 	
-	private List<String> parsedKeys;
+	/**
+	 * Ids of the keys found when parsing the source code
+	 */
+	private BitSet parsedKeys;
+
+	/**
+	 * Text of the current search
+	 */
+	private String searchText;
+
+	private SearchMode searchMode = SearchMode.PLAIN;
+
+	/**
+	 * If only the modified keys must be shown
+	 */
+	private boolean modifiedOnly;
+
+	/**
+	 * Namespace whose keys are shown, or null for all of them
+	 */
+	private String namespace;
+
+	/**
+	 * Position of the language whose untranslated keys are shown, or -1 to show all of them
+	 */
+	private int untranslatedLanguage = -1;
+
+	/**
+	 * Text, filter and keys of the last search, or null if the keys or values
+	 * changed afterwards and its result can't be refined
+	 */
+	private String lastText;
+
+	private SearchMode lastMode;
+
+	private boolean lastModifiedOnly;
+
+	private String lastNamespace;
+
+	private int lastUntranslatedLanguage;
+
+	private int[] lastKeys;
+
+	/**
+	 * Number of changes to the keys, values and languages, to tell if a search
+	 * result is still valid when it is going to be shown, and if the last
+	 * snapshot is still the current one
+	 */
+	private volatile int modCount;
+
+	/**
+	 * Last snapshot taken, while it is still the current one. It is softly
+	 * referenced so it doesn't keep the values of lazy languages in memory.
+	 */
+	private SoftReference<LangSnapshot> snapshot;
+
+	/**
+	 * Lock held while the files are saved, so that only one save writes them at a time
+	 */
+	private final Object saveLock = new Object();
+
+	/**
+	 * If the values of the languages read from files are loaded when they are first needed
+	 */
+	private boolean lazy;
+
+	/**
+	 * Snapshot of the directory, used while the files are being loaded and
+	 * kept by lazy managers to load the values of their languages, or null
+	 */
+	private LangCache cache;
+
+	/**
+	 * Trigrams of the keys and values, built by the first search after the
+	 * files are loaded or updated, or null
+	 */
+	private TrigramIndex searchIndex;
+
+	/**
+	 * Keys as given by {@link TextMatcher#normalize(String)}, by id, computed
+	 * when they are first searched
+	 */
+	private String[] normalizedKeys = new String[0];
+
+	/**
+	 * Keys by namespace, built when first needed after the files are loaded or updated, or null
+	 */
+	private KeyTrie keyTrie;
+
+	/**
+	 * Translation memory of the values of each language, by position,
+	 * built when first needed after the files are loaded or updated
+	 */
+	private Map<Integer, TranslationMemory> translationMemories;
+
+	/**
+	 * Journal of the edits not saved yet, or null if the manager has no folder
+	 * or the journal couldn't be opened
+	 */
+	private EditJournal journal;
+
+	/**
+	 * Edits of values that can be undone
+	 */
+	private EditHistory history = new EditHistory();
+
+	private Language.ValueLoader valueLoader = new Language.ValueLoader() {
+		public String[] loadValues(Language language) {
+			return LangManager.this.loadValues(language);
+		}
+	};
 	
 	public LangManager() {
-		this.allKeys = new ArrayList<String>();
-		this.keys = allKeys;
+		this.allKeys = new KeyIndex();
+		this.keys = null;
 		this.langs = new ArrayList<Language>();
-		this.modifiedKeys = new ArrayList<String>();
-		this.parsedKeys = new ArrayList<String>();
+		this.langIndexes = new HashMap<String, Integer>();
+		this.modifiedKeys = new BitSet();
+		this.parsedKeys = new BitSet();
+		this.translationMemories = new HashMap<Integer, TranslationMemory>();
 	}
 	
 	public LangManager(String string) {
+		this(string, false);
+	}
+
+	/**
+	 * @param string the folder with the language files
+	 * @param lazy if true, only the keys are read now, and the values of each
+	 *        language are read the first time they are needed
+	 */
+	public LangManager(String string, boolean lazy) {
 		this();
 		directory = new File(string);
-		for (File file : directory.listFiles()) {
-			if (file.getName().endsWith("xml")) {
-				String identifier = file.getName().substring(0, file.getName().length() - 4);
-				
-				Properties prop = new Properties();
-				try {
-					prop.loadFromXML(new FileInputStream(file));
-					//TODO: get comment from XML file
-					this.addLanguage(identifier, "comment");
-		            for( Object key : prop.keySet( ) ) {
-		            	if (!allKeys.contains(key))
-		            		allKeys.add((String) key);
-		                this.setKeyValue((String) key, identifier, (String) prop.get(key));
-		            }
-				} catch (InvalidPropertiesFormatException e) {
-					e.printStackTrace();
-				} catch (FileNotFoundException e) {
-					e.printStackTrace();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
+		this.lazy = lazy;
+		StringPool.startLoad();
+		mergeFiles(parseFiles());
+		StringPool.finishLoad();
+		openJournal();
+	}
+
+	/**
+	 * Creates the managers of several folders, parsing all their files at the
+	 * same time
+	 *
+	 * @param directories the folders with the language files
+	 * @return a manager for each folder
+	 */
+	public static LangManager[] load(String... directories) {
+		return load(false, directories);
+	}
+
+	/**
+	 * Creates the managers of several folders, parsing all their files at the
+	 * same time
+	 *
+	 * @param lazy if true, only the keys are read now, and the values of each
+	 *        language are read the first time they are needed
+	 * @param directories the folders with the language files
+	 * @return a manager for each folder
+	 */
+	public static LangManager[] load(boolean lazy, String... directories) {
+		return load(lazy, true, directories);
+	}
+
+	/**
+	 * Creates the managers of several folders, parsing all their files at the
+	 * same time
+	 *
+	 * @param lazy if true, only the keys are read now, and the values of each
+	 *        language are read the first time they are needed
+	 * @param journal if false, the edits aren't journaled and the journals
+	 *        left in the folders are neither applied nor touched
+	 * @param directories the folders with the language files
+	 * @return a manager for each folder
+	 */
+	public static LangManager[] load(boolean lazy, boolean journal, String... directories) {
+		LangManager[] managers = new LangManager[directories.length];
+		List<List<Future<LanguageFile>>> files = new ArrayList<List<Future<LanguageFile>>>();
+		StringPool.startLoad();
+		for (int i = 0; i < directories.length; i++) {
+			managers[i] = new LangManager();
+			managers[i].directory = new File(directories[i]);
+			managers[i].lazy = lazy;
+			files.add(managers[i].parseFiles());
 		}
-		modifiedKeys.clear();
-		parsedKeys.clear();
-		Collections.sort(allKeys);
+		for (int i = 0; i < directories.length; i++)
+			managers[i].mergeFiles(files.get(i));
+		StringPool.finishLoad();
+		if (journal)
+			for (LangManager manager : managers)
+				manager.openJournal();
+		return managers;
 	}
 	
-	public void update(String string) {
+	/**
+	 * Reads again the language files that changed on disk since they were
+	 * loaded or saved, and the new ones. Files that didn't change aren't read,
+	 * and the values modified in the manager and not saved yet are kept.
+	 * <p>
+	 * A language whose file was removed stays in the manager, with only its
+	 * modified values, and its file is written again on the next save.
+	 *
+	 * @param string the folder with the language files
+	 * @return true if some file was read
+	 */
+	public synchronized boolean update(String string) {
 		directory = new File(string);
-		List<String> newKeys = new ArrayList<String>();
+		List<Future<LanguageFile>> files = new ArrayList<Future<LanguageFile>>();
 		for (File file : directory.listFiles()) {
-			if (file.getName().endsWith("xml")) {
-				String identifier = file.getName().substring(0, file.getName().length() - 4);
-				
-				Properties prop = new Properties();
-				try {
-					prop.loadFromXML(new FileInputStream(file));
-					//TODO: get comment from XML file
-					this.addLanguage(identifier, "comment");
-		            for( Object key : prop.keySet( ) ) {
-		            	if (!allKeys.contains(key))
-		            		allKeys.add((String) key);
-		            	if (!modifiedKeys.contains((String) key)) {
-		            		this.setKeyValue((String) key, identifier, (String) prop.get(key));
-		            		modifiedKeys.remove(key);
-		            		newKeys.add((String) key);
-		            	}
-		            }
-				} catch (InvalidPropertiesFormatException e) {
-					e.printStackTrace();
-				} catch (FileNotFoundException e) {
-					e.printStackTrace();
-				} catch (IOException e) {
-					e.printStackTrace();
+			if (LanguageFile.isLanguageFile(file)) {
+				int index = getLanguageIndex(LanguageFile.getIdentifier(file));
+				if (index == -1 || !langs.get(index).isFileUnchanged(file))
+					files.add(LanguageFile.parse(file, null, false));
+			}
+		}
+		Set<String> loadedKeys = new HashSet<String>();
+		BitSet removedValues = new BitSet();
+		boolean removedFiles = false;
+		for (Language lang : langs) {
+			if (lang.hasFileStamp() && !getLanguageFile(lang).exists()) {
+				lang.fileRemoved(removedValues);
+				removedFiles = true;
+			}
+		}
+		if (files.isEmpty() && !removedFiles)
+			return false;
+
+		for (Future<LanguageFile> file : files) {
+			try {
+				LanguageFile languageFile = file.get();
+				if (languageFile == null)
+					continue;
+				if (getLanguageIndex(languageFile.getIdentifier()) == -1)
+					mergeFile(languageFile, loadedKeys);
+				else
+					reloadFile(languageFile, loadedKeys, removedValues);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				e.printStackTrace();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+		allKeys.addAll(loadedKeys);
+		for (int keyId = removedValues.nextSetBit(0); keyId >= 0; keyId = removedValues.nextSetBit(keyId + 1)) {
+			if (!hasValue(keyId) && !modifiedKeys.get(keyId) && !parsedKeys.get(keyId))
+				allKeys.remove(allKeys.getName(keyId));
+		}
+		searchIndex = null;
+		keyTrie = null;
+		translationMemories.clear();
+		keysChanged();
+		updateView();
+		return true;
+	}
+
+	/**
+	 * Applies the new contents of the file of a loaded language. Values that
+	 * aren't modified in the manager take the value in the file, or none if
+	 * the file doesn't have the key anymore.
+	 *
+	 * @param file the contents of the file
+	 * @param loadedKeys set where the keys of the file are added, which must be added to the index afterwards
+	 * @param removedValues set where the ids of the keys whose value was removed are added
+	 */
+	private void reloadFile(LanguageFile file, Set<String> loadedKeys, BitSet removedValues) {
+		Language lang = langs.get(getLanguageIndex(file.getIdentifier()));
+		if (file.getComment() != null)
+			lang.setComment(file.getComment());
+		BitSet inFile = new BitSet();
+		for (int i = 0; i < file.getEntryCount(); i++) {
+			int keyId = allKeys.intern(file.getKey(i));
+			inFile.set(keyId);
+			if (!lang.isModifiedValue(keyId)) {
+				loadedKeys.add(file.getKey(i));
+				lang.putValue(keyId, file.getValue(i));
+			}
+		}
+		for (int keyId = 0; keyId < allKeys.getIdCount(); keyId++) {
+			if (!inFile.get(keyId) && lang.getValue(keyId) != null && !lang.isModifiedValue(keyId)) {
+				lang.putValue(keyId, null);
+				removedValues.set(keyId);
+			}
+		}
+		lang.setFileStamp(file.getLength(), file.getLastModified());
+	}
+
+	private boolean hasValue(int keyId) {
+		for (Language lang : langs)
+			if (lang.getValue(keyId) != null)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Starts reading the language files of the directory in the background,
+	 * from the snapshot of the directory for the files that didn't change.
+	 * Lazy managers only read the keys from the snapshot.
+	 */
+	private List<Future<LanguageFile>> parseFiles() {
+		cache = LangCache.open(directory);
+		List<Future<LanguageFile>> files = new ArrayList<Future<LanguageFile>>();
+		for (File file : directory.listFiles()) {
+			if (LanguageFile.isLanguageFile(file))
+				files.add(LanguageFile.parse(file, cache, lazy));
+		}
+		return files;
+	}
+
+	/**
+	 * Waits for the parsed files and adds their contents to the manager, in
+	 * the order the files were given. If some file had to be parsed, the
+	 * snapshot of the directory is released and written again. Only lazy
+	 * managers keep it mapped afterwards.
+	 */
+	private void mergeFiles(List<Future<LanguageFile>> files) {
+		Set<String> loadedKeys = new HashSet<String>();
+		List<LanguageFile> languageFiles = new ArrayList<LanguageFile>();
+		boolean parsed = false;
+		for (Future<LanguageFile> file : files) {
+			try {
+				LanguageFile languageFile = file.get();
+				if (languageFile != null) {
+					mergeFile(languageFile, loadedKeys);
+					languageFiles.add(languageFile);
+					parsed = parsed || !languageFile.isCached();
 				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				e.printStackTrace();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+		allKeys.addAll(loadedKeys);
+		if (parsed) {
+			List<LanguageFile> snapshot = new ArrayList<LanguageFile>();
+			for (LanguageFile languageFile : languageFiles) {
+				if (lazy && languageFile.isCached())
+					languageFile = cache.read(languageFile.getFile(), false);
+				if (languageFile != null)
+					snapshot.add(languageFile);
+			}
+			if (cache != null)
+				cache.close();
+			LangCache.write(directory, snapshot);
+			cache = lazy ? LangCache.open(directory) : null;
+		} else if (!lazy && cache != null) {
+			cache.close();
+			cache = null;
+		}
+	}
+
+	/**
+	 * Adds the contents of the file of a new language. Lazy managers only add
+	 * the keys, and which of them have a value.
+	 * 
+	 * @param file the contents of the file
+	 * @param loadedKeys set where the keys of the file are added, which must be added to the index afterwards
+	 */
+	private void mergeFile(LanguageFile file, Set<String> loadedKeys) {
+		String comment = file.getComment() != null ? file.getComment() : "comment";
+		Language lang = lazy ? new Language(file.getIdentifier(), comment, valueLoader) : new Language(file.getIdentifier(), comment);
+		langIndexes.put(lang.getIdentifier(), langs.size());
+		langs.add(lang);
+		for (int i = 0; i < file.getEntryCount(); i++) {
+			String key = file.getKey(i);
+			loadedKeys.add(key);
+			if (!lazy)
+				lang.putValue(allKeys.intern(key), file.getValue(i));
+			else
+				lang.setTranslated(allKeys.intern(key), file.getValue(i) == null || !file.getValue(i).equals(""));
+		}
+		lang.setFileStamp(file.getLength(), file.getLastModified());
+	}
+
+	/**
+	 * Reads the values of a language of a lazy manager, from the snapshot of
+	 * the directory if it is up to date or else from its file. Keys that
+	 * aren't in the index are left for {@link #update(String)}.
+	 */
+	private String[] loadValues(Language lang) {
+		return toColumn(readValues(cache, getLanguageFile(lang)));
+	}
+
+	/**
+	 * Reads the contents of the file of a language, from the snapshot of the
+	 * directory if it is up to date or else from the file. Uses nothing of the
+	 * manager, so it can be called without holding the lock.
+	 *
+	 * @param cache the snapshot of the directory, or null
+	 */
+	private static LanguageFile readValues(LangCache cache, File file) {
+		LanguageFile content = null;
+		if (cache != null)
+			content = cache.read(file, false);
+		if (content == null) {
+			content = new LanguageFile(file);
+			try {
+				LangFileReader.read(file, content);
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			
 		}
-		for (String key : allKeys) {
-			if (!newKeys.contains(key) && !modifiedKeys.contains(key) && !parsedKeys.contains(key))
-				allKeys.remove(key);
+		return content;
+	}
+
+	/**
+	 * @return the values of the file by key id
+	 */
+	private String[] toColumn(LanguageFile content) {
+		String[] column = new String[allKeys.getIdCount()];
+		for (int i = 0; i < content.getEntryCount(); i++) {
+			int keyId = allKeys.getId(content.getKey(i));
+			if (keyId != -1)
+				column[keyId] = content.getValue(i);
+		}
+		return column;
+	}
+
+	/**
+	 * Loads the values of the languages given that aren't in memory. The files
+	 * are read without holding the lock of the manager, so it can be edited
+	 * meanwhile, and the lock is only held to look up the ids of their keys.
+	 *
+	 * @param identifiers the languages, or null for all of them
+	 * @param cancellation checked before each file is read, or null
+	 * @return false if the loading was cancelled
+	 */
+	private boolean preloadValues(String[] identifiers, Cancellation cancellation) {
+		List<Language> unloaded = new ArrayList<Language>();
+		List<File> files = new ArrayList<File>();
+		LangCache current;
+		synchronized (this) {
+			current = cache;
+			for (Language lang : langs) {
+				if (lang.isLoaded() || identifiers != null && !Arrays.asList(identifiers).contains(lang.getIdentifier()))
+					continue;
+				unloaded.add(lang);
+				files.add(getLanguageFile(lang));
+			}
+		}
+		for (int i = 0; i < unloaded.size(); i++) {
+			if (cancellation != null && cancellation.isCancelled())
+				return false;
+			LanguageFile content = readValues(current, files.get(i));
+			synchronized (this) {
+				unloaded.get(i).setLoadedValues(toColumn(content));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Opens the journal of the folder, applying the edits left in it when the
+	 * program ended without saving them
+	 */
+	private void openJournal() {
+		if (!directory.isDirectory())
+			return;
+		try {
+			journal = new EditJournal(directory, new EditJournal.Handler() {
+				public void setValue(String key, String identifier, String value) {
+					setKeyValue(key, identifier, value);
+				}
+				public void addKey(String key) {
+					LangManager.this.addKey(key);
+				}
+				public void removeKey(String key) {
+					LangManager.this.removeKey(key);
+				}
+				public void addLanguage(String identifier, String comment) {
+					LangManager.this.addLanguage(identifier, comment);
+				}
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		history.clear();
+	}
+
+	/**
+	 * Closes the journal of the edits not saved yet
+	 *
+	 * @param keep if true, the edits are kept to be applied the next time the
+	 *        folder is loaded, otherwise they are discarded
+	 */
+	public synchronized void closeJournal(boolean keep) {
+		if (journal != null) {
+			journal.close(keep);
+			journal = null;
 		}
-		Collections.sort(allKeys);
-		keys = allKeys;
 	}
 
-	public int addKey(String key) {
+	/**
+	 * Adds a key, keeping the current search and filters. The key is shown if
+	 * they let it through, without searching again.
+	 *
+	 * @return the row of the key among the keys shown, or -1 if the search
+	 *         or the filters hide it
+	 */
+	public synchronized int addKey(String key) {
+		if (journal != null)
+			journal.addKey(key);
 		this.allKeys.add(key);
-		Collections.sort(allKeys);
-		this.modifiedKeys.add(key);
-		return allKeys.indexOf(key);
+		this.modifiedKeys.set(allKeys.getId(key));
+		keysChanged();
+		if (searchIndex != null)
+			searchIndex.add(allKeys.getId(key), getNormalizedKey(allKeys.getId(key)));
+		if (keyTrie != null)
+			keyTrie.add(key, allKeys.getId(key));
+		showAddedKey(allKeys.getId(key));
+		return getRow(allKeys.getId(key));
+	}
+
+	/**
+	 * Adds a key just added to the keys shown if the search and filters let
+	 * it through. Only its name is matched, since a new key has no values.
+	 */
+	private void showAddedKey(int keyId) {
+		int[] shown = keys;
+		if (shown == null)
+			return;
+		String key = allKeys.getName(keyId);
+		if (namespace != null && !namespace.equals("") && !key.equals(namespace) && !key.startsWith(namespace + "."))
+			return;
+		if (untranslatedLanguage != -1 && langs.get(untranslatedLanguage).isTranslated(keyId))
+			return;
+		if (searchText != null && !searchText.equals("")) {
+			try {
+				TextMatcher matcher = new TextMatcher(searchText, searchMode);
+				if (!matcher.matches(key, matcher.usesNormalizedText() ? getNormalizedKey(keyId) : null))
+					return;
+			} catch (PatternSyntaxException e) {
+				return;
+			}
+		}
+		int low = 0;
+		int high = shown.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int comp = allKeys.getName(shown[middle]).compareTo(key);
+			if (comp == 0)
+				return;
+			if (comp < 0)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		int[] added = new int[shown.length + 1];
+		System.arraycopy(shown, 0, added, 0, low);
+		added[low] = keyId;
+		System.arraycopy(shown, low, added, low + 1, shown.length - low);
+		keys = added;
 	}
 	
-	public boolean addLanguage(String identifier, String comment) {
-		boolean exists = false;
-		for (Language lang : langs)
-			if (lang.getIdentifier().equals(identifier))
-				exists = true;
-		if (!exists)
-			langs.add(new Language(identifier, comment));
-		return !exists;
+	public synchronized boolean addLanguage(String identifier, String comment) {
+		if (langIndexes.containsKey(identifier))
+			return false;
+		if (journal != null)
+			journal.addLanguage(identifier, comment);
+		langIndexes.put(identifier, langs.size());
+		langs.add(new Language(identifier, comment));
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Gets the position of a language, which stays the same while the manager
+	 * exists, so it can be kept instead of the identifier
+	 *
+	 * @param identifier the identifier of the language
+	 * @return the position of the language, or -1 if there isn't such language
+	 */
+	public int getLanguageIndex(String identifier) {
+		Integer index = langIndexes.get(identifier);
+		return index == null ? -1 : index.intValue();
 	}
 	
-	public void setKeyValue(String key, String identifier, String value) {
-		for (Language lang : langs)
-			if (lang.getIdentifier().equals(identifier))
-				lang.putValue(key, value);
-		this.modifiedKeys.add(key);
+	public synchronized void setKeyValue(String key, String identifier, String value) {
+		key = StringPool.intern(key);
+		value = StringPool.intern(value);
+		int keyId = allKeys.intern(key);
+		int index = getLanguageIndex(identifier);
+		if (index != -1)
+			history.record(keyId, index, langs.get(index).getValue(keyId), value);
+		changeValue(key, keyId, identifier, index, value);
+	}
+
+	/**
+	 * Undoes the last edit of a value
+	 *
+	 * @return the id of the key whose value changed, or -1 if there was nothing to undo
+	 */
+	public synchronized int undo() {
+		int edit = history.undo();
+		if (edit == -1)
+			return -1;
+		changeValue(history.getKeyId(edit), history.getLangIndex(edit), history.getOldValue(edit));
+		return history.getKeyId(edit);
+	}
+
+	/**
+	 * Does again the last edit undone
+	 *
+	 * @return the id of the key whose value changed, or -1 if there was nothing to redo
+	 */
+	public synchronized int redo() {
+		int edit = history.redo();
+		if (edit == -1)
+			return -1;
+		changeValue(history.getKeyId(edit), history.getLangIndex(edit), history.getNewValue(edit));
+		return history.getKeyId(edit);
+	}
+
+	public synchronized boolean canUndo() {
+		return history.canUndo();
+	}
+
+	public synchronized boolean canRedo() {
+		return history.canRedo();
+	}
+
+	private void changeValue(int keyId, int index, String value) {
+		changeValue(allKeys.getName(keyId), keyId, index == -1 ? null : langs.get(index).getIdentifier(), index, value);
+	}
+
+	private void changeValue(String key, int keyId, String identifier, int index, String value) {
+		if (journal != null)
+			journal.setValue(key, identifier, value);
+		if (index != -1) {
+			langs.get(index).modifyValue(keyId, value);
+			if (translationMemories.containsKey(index))
+				translationMemories.get(index).update(keyId, value);
+		}
+		this.modifiedKeys.set(keyId);
+		keysChanged();
+		if (searchIndex != null) {
+			searchIndex.add(keyId, getNormalizedKey(keyId));
+			if (index != -1)
+				searchIndex.add(keyId, langs.get(index).getNormalizedValue(keyId));
+		}
 	}
 
 	public int getKeyCount() {
-		return keys.size();
+		if (keys == null)
+			return allKeys.size();
+		return keys.length;
 	}
 
 	public String getKey(int index) {
-		return keys.get(index);
+		return allKeys.getName(getKeyId(index));
+	}
+
+	/**
+	 * @param keyId the id of the key
+	 * @return the row of the key in the current search, or -1 if it isn't shown
+	 */
+	public int getRow(int keyId) {
+		int[] shown = keys;
+		if (shown == null)
+			return allKeys.containsId(keyId) ? allKeys.indexOf(allKeys.getName(keyId)) : -1;
+		for (int i = 0; i < shown.length; i++)
+			if (shown[i] == keyId)
+				return i;
+		return -1;
+	}
+
+	public String getKeyName(int keyId) {
+		return allKeys.getName(keyId);
+	}
+
+	/**
+	 * @param index the row of the key in the current search
+	 * @return the id of the key
+	 */
+	public int getKeyId(int index) {
+		if (keys == null)
+			return allKeys.getIdAt(index);
+		return keys[index];
 	}
 	
 	public String getValue(String key, String identifier) {
-		for (Language lang : langs)
-			if (lang.getIdentifier().equals(identifier))
-				return lang.getValue(key);
-		return null;
+		int keyId = allKeys.getId(key);
+		if (keyId == -1)
+			return null;
+		return getValue(keyId, identifier);
+	}
+
+	public String getValue(int keyId, String identifier) {
+		return getValue(keyId, getLanguageIndex(identifier));
+	}
+
+	/**
+	 * @param keyId the id of the key
+	 * @param langIndex the position of the language, as given by {@link #getLanguageIndex(String)}
+	 * @return the value, or null if there is no value or no such language
+	 */
+	public String getValue(int keyId, int langIndex) {
+		if (langIndex < 0)
+			return null;
+		return langs.get(langIndex).getValue(keyId);
 	}
 	
 	public String[] getLangIDs() {
@@ -149,50 +756,746 @@ public class LangManager {
 		return langIDs;
 	}
 
-	public void saveChanges() {
+	/**
+	 * Writes the files of the languages changed since they were loaded or last
+	 * saved, and of the languages that don't have a file yet. The rest of the
+	 * files are left untouched. Once all the changes are saved, the journal
+	 * is emptied.
+	 * <p>
+	 * The files are written from a snapshot, without holding the lock of the
+	 * manager, so it can be edited meanwhile. The values changed again while
+	 * they are written stay modified, to be saved the next time.
+	 *
+	 * @return the number of files written
+	 */
+	public int saveChanges() {
+		synchronized (saveLock) {
+			LangSnapshot current;
+			List<Integer> indexes = new ArrayList<Integer>();
+			List<BitSet> modified = new ArrayList<BitSet>();
+			synchronized (this) {
+				List<String> toSave = new ArrayList<String>();
+				for (int i = 0; i < langs.size(); i++) {
+					Language lang = langs.get(i);
+					if (!lang.hasModifiedValues() && getLanguageFile(lang).exists())
+						continue;
+					toSave.add(lang.getIdentifier());
+					indexes.add(i);
+					modified.add(lang.getModifiedValues());
+				}
+				current = takeSnapshot(toSave.toArray(new String[toSave.size()]));
+			}
+			int saved = 0;
+			for (int i = 0; i < indexes.size(); i++) {
+				int langIndex = indexes.get(i);
+				File file = new File(directory.getAbsoluteFile() + File.separator + current.getIdentifier(langIndex) + ".xml");
+				try {
+					LangFileWriter.write(file, current, langIndex);
+					synchronized (this) {
+						Language lang = langs.get(langIndex);
+						lang.clearModifiedValues(modified.get(i), current.getColumn(langIndex));
+						lang.setFileStamp(file.length(), file.lastModified());
+					}
+					saved++;
+				} catch (FileNotFoundException e) {
+					e.printStackTrace();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			synchronized (this) {
+				if (journal != null && !hasUnsavedChanges())
+					journal.truncate();
+			}
+			return saved;
+		}
+	}
+
+	/**
+	 * Gets an immutable view of the keys and values as they are now, to be read
+	 * from other threads while the manager is edited. The snapshot is shared
+	 * until the keys, the values, the languages or the keys shown change.
+	 * <p>
+	 * The snapshot has all the keys, but only the values of the languages
+	 * given, so only those are loaded. With no languages it has only the keys.
+	 * Their files are read before taking the lock of the manager, so taking a
+	 * snapshot doesn't keep it from being edited.
+	 *
+	 * @param identifiers the languages whose values are needed
+	 */
+	public LangSnapshot snapshot(String... identifiers) {
+		preloadValues(identifiers, null);
+		return takeSnapshot(identifiers);
+	}
+
+	private synchronized LangSnapshot takeSnapshot(String[] identifiers) {
+		LangSnapshot current = snapshot == null ? null : snapshot.get();
+		if (current != null && (current.getVersion() != modCount || current.getShownKeys() != keys))
+			current = null;
+		BitSet needed = new BitSet();
+		for (String identifier : identifiers) {
+			Integer index = langIndexes.get(identifier);
+			if (index != null && (current == null || !current.hasValues(index)))
+				needed.set(index);
+		}
+		if (current != null && needed.isEmpty())
+			return current;
+		String[] names = new String[langs.size()];
+		String[] comments = new String[langs.size()];
+		ValueColumn[] columns = new ValueColumn[langs.size()];
+		for (int i = 0; i < langs.size(); i++) {
+			names[i] = langs.get(i).getIdentifier();
+			comments[i] = langs.get(i).getComment();
+			if (needed.get(i))
+				columns[i] = langs.get(i).snapshot();
+			else if (current != null && current.hasValues(i))
+				columns[i] = current.getColumn(i);
+		}
+		current = new LangSnapshot(modCount, allKeys.snapshot(), keys, names, comments, columns);
+		snapshot = new SoftReference<LangSnapshot>(current);
+		return current;
+	}
+
+	/**
+	 * Writes all the keys with a value in some of the languages given, in the
+	 * order of the keys
+	 *
+	 * @param format the format of the file
+	 * @param out where the file is written, which isn't closed
+	 * @param identifiers the languages whose values are written
+	 * @return the number of keys written
+	 * @see LangSnapshot#export(LangFormat, OutputStream, String[])
+	 */
+	public int export(LangFormat format, OutputStream out, String[] identifiers) throws IOException {
+		return snapshot(identifiers).export(format, out, identifiers);
+	}
+
+	/**
+	 * Reads a file and finds the values in it that are different from the
+	 * ones in the manager, without changing anything. Values missing from the
+	 * file and languages that aren't known are ignored.
+	 *
+	 * @param format the format of the file
+	 * @param in the contents of the file
+	 * @param identifiers the languages of the values, for the formats whose files don't tell them
+	 * @return the changes, in the order of the file
+	 * @see #applyChanges(List)
+	 */
+	public synchronized List<ValueChange> diff(LangFormat format, InputStream in, String[] identifiers) throws IOException {
+		final List<ValueChange> changes = new ArrayList<ValueChange>();
+		format.read(in, identifiers, new LangFormat.Handler() {
+			private String[] languages;
+
+			public void languages(String[] identifiers) {
+				languages = identifiers;
+			}
+
+			public void entry(String key, String[] values) {
+				for (int i = 0; i < values.length && i < languages.length; i++) {
+					if (values[i] == null || languages[i] == null)
+						continue;
+					String current = allKeys.contains(key) ? getValue(key, languages[i]) : null;
+					if (!values[i].equals(current))
+						changes.add(new ValueChange(key, languages[i], current, values[i]));
+				}
+			}
+		});
+		return changes;
+	}
+
+	/**
+	 * Applies the changes found by {@link #diff(LangFormat, InputStream, String[])}
+	 * at once, adding the keys and languages that are new. The changes can't
+	 * be undone one by one, so the history of edits is cleared.
+	 *
+	 * @return the number of values changed
+	 */
+	public synchronized int applyChanges(List<ValueChange> changes) {
+		for (ValueChange change : changes) {
+			String key = StringPool.intern(change.getKey());
+			String value = StringPool.intern(change.getNewValue());
+			if (getLanguageIndex(change.getIdentifier()) == -1)
+				addLanguage(change.getIdentifier(), null);
+			int keyId = allKeys.intern(key);
+			if (allKeys.add(key)) {
+				if (journal != null)
+					journal.addKey(key);
+				if (searchIndex != null)
+					searchIndex.add(keyId, getNormalizedKey(keyId));
+				if (keyTrie != null)
+					keyTrie.add(key, keyId);
+			}
+			changeValue(key, keyId, change.getIdentifier(), getLanguageIndex(change.getIdentifier()), value);
+		}
+		history.clear();
+		updateView();
+		return changes.size();
+	}
+
+	/**
+	 * @return true if some language has changes that aren't saved yet
+	 */
+	public boolean hasUnsavedChanges() {
+		for (Language lang : langs)
+			if (lang.hasModifiedValues() || !getLanguageFile(lang).exists())
+				return true;
+		return false;
+	}
+
+	private File getLanguageFile(Language lang) {
+		return new File(directory.getAbsoluteFile() + File.separator + lang.getIdentifier() + ".xml");
+	}
+
+	public synchronized void search(String text) {
+		searchText = text;
+		updateView();
+	}
+
+	public synchronized void search(String text, SearchMode mode) {
+		searchText = text;
+		searchMode = mode;
+		updateView();
+	}
+
+	/**
+	 * Shows only the modified keys, or all of them, in addition to the search
+	 * filter. Like the other filters, it is applied by the next search, found
+	 * with {@link #findKeys(String, SearchMode)} and shown with
+	 * {@link #showKeys(SearchResult)}, so it can be done in the background.
+	 */
+	public synchronized void setModifiedOnly(boolean modifiedOnly) {
+		this.modifiedOnly = modifiedOnly;
+	}
+
+	/**
+	 * Shows only the keys of a namespace and the key with its name, in
+	 * addition to the other filters, from the next search
+	 *
+	 * @param namespace the namespace, or null to show all the keys
+	 */
+	public synchronized void setNamespace(String namespace) {
+		this.namespace = namespace;
+	}
+
+	/**
+	 * Shows only the keys without a value, or with an empty value, in a
+	 * language, in addition to the other filters, from the next search
+	 *
+	 * @param identifier the language, or null to show the keys with and without value
+	 */
+	public synchronized void setUntranslatedOnly(String identifier) {
+		this.untranslatedLanguage = identifier == null ? -1 : getLanguageIndex(identifier);
+	}
+
+	/**
+	 * @return the number of keys with a value that isn't empty in a language
+	 */
+	public int getTranslatedCount(int langIndex) {
+		return langIndex < 0 ? 0 : langs.get(langIndex).getTranslatedCount();
+	}
+
+	/**
+	 * @return the percentage of the keys that have a value that isn't empty
+	 *         in a language, 100 if there are no keys
+	 */
+	public double getCompleteness(int langIndex) {
+		if (allKeys.size() == 0)
+			return 100;
+		return getTranslatedCount(langIndex) * 100.0 / allKeys.size();
+	}
+
+	/**
+	 * Finds the next row, after a given one, of a key without a value or with
+	 * an empty value in a language, starting again from the first row after
+	 * the last one. When all the keys are shown, only the untranslated keys
+	 * are looked at.
+	 *
+	 * @param row the row to start after, -1 to start from the first one
+	 * @param langIndex the position of the language
+	 * @return the row, or -1 if no key shown is untranslated
+	 */
+	public synchronized int getNextUntranslatedRow(int row, int langIndex) {
+		if (langIndex < 0)
+			return -1;
+		Language lang = langs.get(langIndex);
+		int[] shown = keys;
+		if (shown != null) {
+			for (int i = 1; i <= shown.length; i++) {
+				int next = (row + i) % shown.length;
+				if (next >= 0 && !lang.isTranslated(shown[next]))
+					return next;
+			}
+			return -1;
+		}
+		int next = -1;
+		int first = -1;
+		BitSet untranslated = getUntranslated(lang);
+		for (int keyId = untranslated.nextSetBit(0); keyId >= 0; keyId = untranslated.nextSetBit(keyId + 1)) {
+			int index = allKeys.indexOf(allKeys.getName(keyId));
+			if (index > row && (next == -1 || index < next))
+				next = index;
+			if (first == -1 || index < first)
+				first = index;
+		}
+		return next != -1 ? next : first;
+	}
+
+	/**
+	 * @return the ids of the keys in the index without a value that isn't empty in a language
+	 */
+	private BitSet getUntranslated(Language lang) {
+		BitSet untranslated = new BitSet();
+		untranslated.set(0, allKeys.getIdCount());
+		untranslated.andNot(lang.getTranslated());
+		for (int keyId = untranslated.nextSetBit(0); keyId >= 0; keyId = untranslated.nextSetBit(keyId + 1))
+			if (!allKeys.containsId(keyId))
+				untranslated.clear(keyId);
+		return untranslated;
+	}
+
+	/**
+	 * Suggests translations for the value of a key from the translations of
+	 * the most similar values of other keys
+	 *
+	 * @param keyId the id of the key to translate
+	 * @param sourceIndex the position of the language of the value to translate
+	 * @param targetIndex the position of the language to translate to
+	 * @param max the maximum number of suggestions
+	 * @return the suggestions, the best first
+	 */
+	public synchronized List<TranslationMemory.Suggestion> suggestTranslations(int keyId, int sourceIndex, int targetIndex, int max) {
+		if (sourceIndex < 0 || targetIndex < 0 || sourceIndex == targetIndex)
+			return new ArrayList<TranslationMemory.Suggestion>();
+		Language source = langs.get(sourceIndex);
+		TranslationMemory memory = translationMemories.get(sourceIndex);
+		if (memory == null) {
+			memory = new TranslationMemory(source);
+			for (int id : allKeys.toIdArray())
+				if (source.isTranslated(id))
+					memory.update(id, source.getValue(id));
+			translationMemories.put(sourceIndex, memory);
+		}
+		return memory.suggest(source.getValue(keyId), keyId, langs.get(targetIndex), max);
+	}
+
+	/**
+	 * Groups the keys with the same value in a language, or the same value
+	 * ignoring case, accents, punctuation and spacing, in one pass over the
+	 * values
+	 *
+	 * @param langIndex the position of the language
+	 * @return the groups of two keys or more, the biggest first
+	 */
+	public synchronized List<DuplicateGroup> findDuplicateValues(int langIndex) {
+		List<DuplicateGroup> duplicates = new ArrayList<DuplicateGroup>();
+		if (langIndex < 0)
+			return duplicates;
+		Language lang = langs.get(langIndex);
+		Map<String, DuplicateGroup> groups = new HashMap<String, DuplicateGroup>();
+		StringBuilder builder = new StringBuilder();
+		for (int keyId : allKeys.toIdArray()) {
+			if (!lang.isTranslated(keyId))
+				continue;
+			String value = lang.getValue(keyId);
+			String loose = DuplicateGroup.loosen(value, builder);
+			DuplicateGroup group = groups.get(loose);
+			if (group == null) {
+				group = new DuplicateGroup(value);
+				groups.put(loose, group);
+			}
+			group.add(keyId, value);
+		}
+		for (DuplicateGroup group : groups.values())
+			if (group.size() > 1)
+				duplicates.add(group);
+		Collections.sort(duplicates, new Comparator<DuplicateGroup>() {
+			public int compare(DuplicateGroup g1, DuplicateGroup g2) {
+				return g2.size() - g1.size();
+			}
+		});
+		return duplicates;
+	}
+
+	/**
+	 * Gives the keys of a group the translations they lack, taking them from
+	 * the first key of the group that has them
+	 *
+	 * @param group the keys with duplicate values
+	 * @param keyIds the keys of the group to complete
+	 * @return the number of values set
+	 */
+	public synchronized int consolidate(DuplicateGroup group, Collection<Integer> keyIds) {
+		int count = 0;
 		for (Language lang : langs) {
-			Properties prop = new Properties();
-			for (String key : allKeys)
-				if (lang.getValue(key) != null)
-					prop.setProperty(key, lang.getValue(key));
-			try {
-				prop.storeToXML(new FileOutputStream(new File(directory.getAbsoluteFile() + File.separator + lang.getIdentifier() + ".xml")), lang.getComment());
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			} catch (IOException e) {
-				e.printStackTrace();
+			String translation = null;
+			for (int i = 0; i < group.size() && translation == null; i++)
+				if (lang.isTranslated(group.getKeyId(i)))
+					translation = lang.getValue(group.getKeyId(i));
+			if (translation == null)
+				continue;
+			for (int keyId : keyIds) {
+				if (!lang.isTranslated(keyId)) {
+					setKeyValue(allKeys.getName(keyId), lang.getIdentifier(), translation);
+					count++;
+				}
 			}
 		}
+		return count;
+	}
+
+	/**
+	 * @return the keys organized by namespace. Must not be changed.
+	 */
+	public synchronized KeyTrie getKeyTrie() {
+		if (keyTrie == null) {
+			KeyTrie trie = new KeyTrie();
+			for (String key : allKeys)
+				trie.add(key, allKeys.getId(key));
+			keyTrie = trie;
+		}
+		return keyTrie;
+	}
+
+	private void updateView() {
+		keys = findKeys(searchText, searchMode).keys;
+	}
+
+	/**
+	 * Finds the keys that match a search text and the current modified-only,
+	 * namespace and untranslated filters, without showing them. Can be called from a background thread
+	 * while the other methods are called from the event dispatch thread: the
+	 * keys to check are chosen while holding the lock of the manager, and
+	 * then they are matched against a snapshot without it, so the manager can
+	 * be edited during long searches.
+	 * <p>
+	 * When a plain search text contains the text of the last search, as when a
+	 * character is typed, and nothing changed since, only the keys found then
+	 * are checked again. Otherwise every key is checked. Plain searches of
+	 * three characters or more only check the keys that also have all the
+	 * trigrams of the text. Regular expressions that aren't valid find no key.
+	 * Searches with only filters and no text don't read any value, so they
+	 * don't load the values of lazy languages.
+	 *
+	 * @param text the search text, or null
+	 * @param mode how the text is matched
+	 * @return the keys found, to be shown with {@link #showKeys(SearchResult)}
+	 */
+	public SearchResult findKeys(String text, SearchMode mode) {
+		return findKeys(text, mode, null);
 	}
 
-	public void search(String text) {
-		if (text == null || text.equals(""))
-			keys = allKeys;
-		else {
-			keys = new ArrayList<String>();
-			for (String key : allKeys) {
-				if (key.toLowerCase().contains(text.toLowerCase()))
-					keys.add(key);
-				for (Language lang : langs) {
-					if (lang.getValue(key) != null && !keys.contains(keys) && lang.getValue(key).toLowerCase().contains(text.toLowerCase()))
-						keys.add(key);
+	/**
+	 * Finds the keys that match a search text and the current filters, as
+	 * {@link #findKeys(String, SearchMode)}, but stops as soon as the
+	 * cancellation says the result isn't needed anymore. It is checked
+	 * before each language is loaded and every few hundred keys matched.
+	 *
+	 * @param cancellation checked while searching, or null
+	 * @return the keys found, or a result that is {@link SearchResult#isCancelled() cancelled}
+	 */
+	public SearchResult findKeys(String text, SearchMode mode, Cancellation cancellation) {
+		if (text == null)
+			text = "";
+		boolean modifiedOnly;
+		String namespace;
+		int untranslatedLanguage;
+		int version;
+		boolean filtered;
+		TextMatcher matcher = null;
+		int[] ids = null;
+		String[] normalizedKeys = null;
+		LangSnapshot current = null;
+		if (!text.equals("") && !preloadValues(null, cancellation))
+			return SearchResult.cancelled(text, mode);
+		synchronized (this) {
+			modifiedOnly = this.modifiedOnly;
+			namespace = this.namespace;
+			untranslatedLanguage = this.untranslatedLanguage;
+			version = modCount;
+			filtered = !text.equals("") || modifiedOnly || namespace != null || untranslatedLanguage != -1;
+			if (filtered) {
+				try {
+					matcher = new TextMatcher(text, mode);
+				} catch (PatternSyntaxException e) {
+					matcher = null;
 				}
 			}
+			if (matcher != null) {
+				String indexText = matcher.getIndexText();
+				BitSet candidates = indexText != null && indexText.length() >= 3 ? getSearchIndex().candidates(indexText) : null;
+				if (lastKeys != null && lastText != null && lastMode == mode && (mode == SearchMode.PLAIN || mode == SearchMode.IGNORE_ACCENTS) && text.contains(lastText) && (modifiedOnly || !lastModifiedOnly) && sameNamespace(namespace, lastNamespace) && (untranslatedLanguage == lastUntranslatedLanguage || lastUntranslatedLanguage == -1))
+					ids = lastKeys.clone();
+				else if (namespace != null)
+					ids = getKeyTrie().getIds(namespace, allKeys);
+				else if (untranslatedLanguage != -1)
+					ids = allKeys.toIdArray(getUntranslated(langs.get(untranslatedLanguage)));
+				else
+					ids = allKeys.toIdArray();
+				int count = 0;
+				for (int keyId : ids) {
+					if (modifiedOnly && !modifiedKeys.get(keyId))
+						continue;
+					if (untranslatedLanguage != -1 && langs.get(untranslatedLanguage).isTranslated(keyId))
+						continue;
+					if (candidates != null && !candidates.get(keyId))
+						continue;
+					ids[count++] = keyId;
+				}
+				ids = Arrays.copyOf(ids, count);
+				if (this.normalizedKeys.length < allKeys.getIdCount())
+					this.normalizedKeys = Arrays.copyOf(this.normalizedKeys, allKeys.getIdCount());
+				normalizedKeys = this.normalizedKeys;
+				if (!text.equals(""))
+					current = takeSnapshot(getLangIDs());
+			}
 		}
+		int[] found = null;
+		if (matcher != null && text.equals(""))
+			found = ids;
+		else if (matcher != null) {
+			int count = 0;
+			for (int i = 0; i < ids.length; i++) {
+				if ((i & 255) == 0 && cancellation != null && cancellation.isCancelled())
+					return SearchResult.cancelled(text, mode);
+				if (matches(current, normalizedKeys, ids[i], matcher))
+					ids[count++] = ids[i];
+			}
+			found = Arrays.copyOf(ids, count);
+		} else if (filtered)
+			found = new int[0];
+		synchronized (this) {
+			if (version == modCount) {
+				lastText = text;
+				lastMode = mode;
+				lastModifiedOnly = modifiedOnly;
+				lastNamespace = namespace;
+				lastUntranslatedLanguage = untranslatedLanguage;
+				lastKeys = found;
+			}
+		}
+		return new SearchResult(text, mode, modifiedOnly, namespace, untranslatedLanguage, version, found);
+	}
+
+	private static boolean sameNamespace(String namespace1, String namespace2) {
+		return namespace1 == null ? namespace2 == null : namespace1.equals(namespace2);
+	}
+
+	/**
+	 * Shows the keys found by a search, unless the keys, the values or the
+	 * modified-only, namespace or untranslated filters changed since it was done
+	 *
+	 * @return true if the keys are shown, false if the search must be done again
+	 */
+	public synchronized boolean showKeys(SearchResult result) {
+		if (result.cancelled || result.modCount != modCount || result.modifiedOnly != modifiedOnly || !sameNamespace(result.namespace, namespace) || result.untranslatedLanguage != untranslatedLanguage)
+			return false;
+		searchText = result.text;
+		searchMode = result.mode;
+		keys = result.keys;
+		return true;
+	}
+
+	/**
+	 * @return the index of the trigrams of the normalized keys and values
+	 */
+	private TrigramIndex getSearchIndex() {
+		if (searchIndex == null) {
+			TrigramIndex index = new TrigramIndex();
+			for (int keyId : allKeys.toIdArray()) {
+				index.add(keyId, getNormalizedKey(keyId));
+				for (Language lang : langs)
+					index.add(keyId, lang.getNormalizedValue(keyId));
+			}
+			searchIndex = index;
+		}
+		return searchIndex;
+	}
+
+	private String getNormalizedKey(int keyId) {
+		if (keyId >= normalizedKeys.length)
+			normalizedKeys = Arrays.copyOf(normalizedKeys, Math.max(keyId + 1, allKeys.getIdCount()));
+		return getNormalizedKey(normalizedKeys, keyId, allKeys.getName(keyId));
+	}
+
+	/**
+	 * Gets a normalized key from the cache, filling it if needed. A key never
+	 * changes for its id, so the cache can be filled from several threads.
+	 */
+	private static String getNormalizedKey(String[] normalizedKeys, int keyId, String key) {
+		String normalized = normalizedKeys[keyId];
+		if (normalized == null) {
+			normalized = TextMatcher.normalize(key);
+			normalizedKeys[keyId] = normalized;
+		}
+		return normalized;
+	}
+
+	/**
+	 * @return true if the key or one of its values in the snapshot matches the search
+	 */
+	private static boolean matches(LangSnapshot snapshot, String[] normalizedKeys, int keyId, TextMatcher matcher) {
+		boolean normalized = matcher.usesNormalizedText();
+		String key = snapshot.getKeyName(keyId);
+		if (matcher.matches(key, normalized ? getNormalizedKey(normalizedKeys, keyId, key) : null))
+			return true;
+		for (int i = 0; i < snapshot.getLanguageCount(); i++)
+			if (matcher.matches(snapshot.getValue(keyId, i), normalized ? snapshot.getNormalizedValue(keyId, i) : null))
+				return true;
+		return false;
 	}
 
 	public boolean isModifiedKey(String key) {
-		return modifiedKeys.contains(key);
+		int keyId = allKeys.getId(key);
+		return keyId != -1 && modifiedKeys.get(keyId);
+	}
+
+	public boolean isModifiedKey(int keyId) {
+		return modifiedKeys.get(keyId);
+	}
+
+	/**
+	 * @return true if the value of the key in the language was changed
+	 */
+	public boolean isModifiedValue(int keyId, int langIndex) {
+		return langIndex >= 0 && langs.get(langIndex).isModifiedValue(keyId);
 	}
 
-	public void addParsedKey(String key) {
+	/**
+	 * Adds a key found in the source code. The keys shown don't change until
+	 * the next search, which the caller does once all the keys are added.
+	 */
+	public synchronized void addParsedKey(String key) {
 		allKeys.add(key);
-		parsedKeys.add(key);
-		Collections.sort(allKeys);
-		keys = allKeys;
+		parsedKeys.set(allKeys.getId(key));
+		keysChanged();
+		if (searchIndex != null)
+			searchIndex.add(allKeys.getId(key), getNormalizedKey(allKeys.getId(key)));
+		if (keyTrie != null)
+			keyTrie.add(key, allKeys.getId(key));
 	}
 
-	public void removeKey(String key) {
-		allKeys.remove(key);
+	public synchronized void removeKey(String key) {
+		if (allKeys.remove(key)) {
+			if (journal != null)
+				journal.removeKey(key);
+			int keyId = allKeys.getId(key);
+			for (int i = 0; i < langs.size(); i++) {
+				if (langs.get(i).getValue(keyId) != null) {
+					langs.get(i).modifyValue(keyId, null);
+					if (translationMemories.containsKey(i))
+						translationMemories.get(i).update(keyId, null);
+				}
+			}
+			if (keyTrie != null)
+				keyTrie.remove(key);
+			history.clear();
+			keysChanged();
+		}
+	}
+
+	private void keysChanged() {
+		lastText = null;
+		lastKeys = null;
+		modCount++;
+	}
+
+	/**
+	 * A value of a file that is different from the one in the manager
+	 */
+	public static class ValueChange {
+
+		private String key;
+
+		private String identifier;
+
+		private String oldValue;
+
+		private String newValue;
+
+		private ValueChange(String key, String identifier, String oldValue, String newValue) {
+			this.key = key;
+			this.identifier = identifier;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return the identifier of the language
+		 */
+		public String getIdentifier() {
+			return identifier;
+		}
+
+		/**
+		 * @return the value in the manager, or null if there is none
+		 */
+		public String getOldValue() {
+			return oldValue;
+		}
+
+		public String getNewValue() {
+			return newValue;
+		}
+	}
+
+	/**
+	 * Keys found by {@link LangManager#findKeys(String, SearchMode)}
+	 */
+	public static class SearchResult {
+
+		private String text;
+
+		private SearchMode mode;
+
+		private boolean modifiedOnly;
+
+		private String namespace;
+
+		private int untranslatedLanguage;
+
+		private int modCount;
+
+		private int[] keys;
+
+		private boolean cancelled;
+
+		private SearchResult(String text, SearchMode mode, boolean modifiedOnly, String namespace, int untranslatedLanguage, int modCount, int[] keys) {
+			this.text = text;
+			this.mode = mode;
+			this.modifiedOnly = modifiedOnly;
+			this.namespace = namespace;
+			this.untranslatedLanguage = untranslatedLanguage;
+			this.modCount = modCount;
+			this.keys = keys;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * @return true if the search was cancelled before the keys were found
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		private static SearchResult cancelled(String text, SearchMode mode) {
+			SearchResult result = new SearchResult(text, mode, false, null, -1, -1, null);
+			result.cancelled = true;
+			return result;
+		}
+	}
+
+	/**
+	 * Tells a search whether its result is still needed
+	 */
+	public interface Cancellation {
+
+		boolean isCancelled();
 	}
 }
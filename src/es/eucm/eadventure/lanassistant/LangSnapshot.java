@@ -0,0 +1,166 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The keys and values of a {@link LangManager} at one moment, as given by
+ * {@link LangManager#snapshot(String...)}. A snapshot never changes, and
+ * shares the structures of the manager until they change, so taking one is
+ * cheap and it can be read from any thread, without locking, while the
+ * manager is edited.
+ * <p>
+ * A snapshot has all the keys, but only the values of the languages asked for
+ * when it was taken, so the values of the other languages don't have to be
+ * loaded.
+ */
+public class LangSnapshot {
+
+	private final int version;
+
+	private final KeyIndex.Snapshot keys;
+
+	/**
+	 * Ids of the keys shown when the snapshot was taken, or null if all of them were
+	 */
+	private final int[] shownKeys;
+
+	private final String[] identifiers;
+
+	private final String[] comments;
+
+	/**
+	 * The values of each language, or null for the languages without values
+	 */
+	private final ValueColumn[] columns;
+
+	/**
+	 * Ids of all the keys in order, computed when first needed
+	 */
+	private volatile int[] keyIds;
+
+	LangSnapshot(int version, KeyIndex.Snapshot keys, int[] shownKeys, String[] identifiers, String[] comments, ValueColumn[] columns) {
+		this.version = version;
+		this.keys = keys;
+		this.shownKeys = shownKeys;
+		this.identifiers = identifiers;
+		this.comments = comments;
+		this.columns = columns;
+	}
+
+	/**
+	 * @return the number of changes made to the manager before the snapshot
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	int[] getShownKeys() {
+		return shownKeys;
+	}
+
+	public int getKeyCount() {
+		return keys.size();
+	}
+
+	/**
+	 * @return the ids of the keys, in the order of the keys
+	 */
+	public int[] getKeyIds() {
+		int[] ids = keyIds;
+		if (ids == null)
+			keyIds = ids = keys.toIdArray();
+		return ids;
+	}
+
+	/**
+	 * @return the ids of the keys that were shown, in the order of the keys
+	 */
+	public int[] getShownKeyIds() {
+		return shownKeys != null ? shownKeys : getKeyIds();
+	}
+
+	public String getKeyName(int keyId) {
+		return keys.getName(keyId);
+	}
+
+	public int getLanguageCount() {
+		return identifiers.length;
+	}
+
+	public String getIdentifier(int langIndex) {
+		return identifiers[langIndex];
+	}
+
+	public String getComment(int langIndex) {
+		return comments[langIndex];
+	}
+
+	/**
+	 * @return the position of the language, or -1 if it isn't in the snapshot
+	 */
+	public int getLanguageIndex(String identifier) {
+		for (int i = 0; i < identifiers.length; i++)
+			if (identifiers[i].equals(identifier))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * @return true if the snapshot has the values of the language
+	 */
+	public boolean hasValues(int langIndex) {
+		return columns[langIndex] != null;
+	}
+
+	public String getValue(int keyId, int langIndex) {
+		return getColumn(langIndex).get(keyId);
+	}
+
+	/**
+	 * @see TextMatcher#normalize(String)
+	 */
+	public String getNormalizedValue(int keyId, int langIndex) {
+		return getColumn(langIndex).getNormalized(keyId);
+	}
+
+	ValueColumn getColumn(int langIndex) {
+		ValueColumn column = columns[langIndex];
+		if (column == null)
+			throw new IllegalStateException("The snapshot has no values of " + identifiers[langIndex]);
+		return column;
+	}
+
+	/**
+	 * Writes all the keys with a value in some of the languages given, in the
+	 * order of the keys
+	 *
+	 * @param format the format of the file
+	 * @param out where the file is written, which isn't closed
+	 * @param identifiers the languages whose values are written, which must
+	 *        be among the ones the snapshot has values of
+	 * @return the number of keys written
+	 */
+	public int export(LangFormat format, OutputStream out, String[] identifiers) throws IOException {
+		int[] indexes = new int[identifiers.length];
+		for (int i = 0; i < identifiers.length; i++)
+			indexes[i] = getLanguageIndex(identifiers[i]);
+		String comment = indexes.length > 0 && indexes[0] != -1 ? comments[indexes[0]] : null;
+		LangFormat.EntryWriter writer = format.start(out, identifiers, comment);
+		String[] values = new String[identifiers.length];
+		int written = 0;
+		for (int keyId : getKeyIds()) {
+			boolean hasValue = false;
+			for (int i = 0; i < indexes.length; i++) {
+				values[i] = indexes[i] == -1 ? null : getValue(keyId, indexes[i]);
+				hasValue = hasValue || values[i] != null;
+			}
+			if (hasValue) {
+				writer.entry(getKeyName(keyId), values);
+				written++;
+			}
+		}
+		writer.end();
+		return written;
+	}
+}
@@ -12,11 +12,22 @@ public class LangTableModel extends AbstractTableModel {
 	private LangManager langManager;
 	
 	private String[] lang = {"es_ES", "en_EN"};
+
+	/**
+	 * Position in the lang manager of the language of each column
+	 */
+	private int[] langIndex = {-1, -1};
 	
 	public void setLangManager(LangManager langManager) {
 		this.langManager = langManager;
+		updateLangIndexes();
 		this.fireTableDataChanged();
 	}
+
+	private void updateLangIndexes() {
+		for (int i = 0; i < lang.length; i++)
+			langIndex[i] = langManager == null ? -1 : langManager.getLanguageIndex(lang[i]);
+	}
 	
 	public int getColumnCount() {
 		return 3;
@@ -32,7 +43,7 @@ public class LangTableModel extends AbstractTableModel {
 		if (columnIndex == 0)
 			return langManager.getKey(rowIndex);
 		if (columnIndex == 1 || columnIndex == 2)
-			return langManager.getValue(langManager.getKey(rowIndex), lang[columnIndex - 1]);
+			return langManager.getValue(langManager.getKeyId(rowIndex), langIndex[columnIndex - 1]);
 		return null;
 	}
 
@@ -40,6 +51,7 @@ public class LangTableModel extends AbstractTableModel {
     public void setValueAt( Object value, int rowIndex, int columnIndex ) {
     	if (columnIndex > 0)
     	langManager.setKeyValue(langManager.getKey(rowIndex), lang[columnIndex - 1], (String) value);
+    	fireTableRowsUpdated(rowIndex, rowIndex);
     }
 
     public boolean isCellEditable( int row, int column ) {
@@ -48,11 +60,12 @@ public class LangTableModel extends AbstractTableModel {
 
 	public void setLang(int lang2, String selectedItem) {
 		lang[lang2] = selectedItem;
+		updateLangIndexes();
 		this.fireTableDataChanged();
 	}
 	
 	public boolean isModifiedKey(int rowIndex) {
-		return langManager.isModifiedKey(langManager.getKey(rowIndex));
+		return langManager.isModifiedKey(langManager.getKeyId(rowIndex));
 	}
 
 }
@@ -1,34 +1,291 @@
 package es.eucm.eadventure.lanassistant;
 
-import java.util.HashMap;
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.BitSet;
 
+/**
+ * The values of one language. Values are stored in a {@link ValueColumn}
+ * indexed by the key ids of the {@link KeyIndex} of the {@link LangManager},
+ * so the key strings aren't repeated in every language.
+ * <p>
+ * A language created with a {@link ValueLoader} loads its values the first
+ * time they are needed. While it has no modified values they are only softly
+ * referenced, so the garbage collector can drop the values of the languages
+ * not used lately when memory is short, and they are loaded again if needed.
+ */
 public class Language {
 
-	private HashMap<String, String> values;
-	
+	/**
+	 * Reads the values of a language from its file
+	 */
+	public interface ValueLoader {
+
+		String[] loadValues(Language language);
+	}
+
+	/**
+	 * The values, when they must be kept in memory
+	 */
+	private volatile ValueColumn values;
+
+	/**
+	 * The values of a language that can be loaded again, while they aren't modified
+	 */
+	private volatile SoftReference<ValueColumn> softValues;
+
+	private ValueLoader loader;
+
+	/**
+	 * Ids of the keys whose value was changed in this language
+	 */
+	private BitSet modifiedValues;
+
+	/**
+	 * Ids of the keys with a value that isn't empty in this language, known
+	 * even while the values aren't loaded
+	 */
+	private BitSet translated;
+
+	private int translatedCount;
+
 	private String identifier;
-	
+
 	private String comment;
-	
+
+	/**
+	 * Size and modification date of the file of the language when it was last read or written
+	 */
+	private long fileLength = -1;
+
+	private long fileLastModified = -1;
+
 	public Language(String identifier, String comment) {
 		this.identifier = identifier;
 		this.comment = comment;
-		values = new HashMap<String, String>();
+		values = new ValueColumn();
+		modifiedValues = new BitSet();
+		translated = new BitSet();
+	}
+
+	/**
+	 * Creates a language whose values are loaded when they are first needed
+	 */
+	public Language(String identifier, String comment, ValueLoader loader) {
+		this.identifier = identifier;
+		this.comment = comment;
+		this.loader = loader;
+		modifiedValues = new BitSet();
+		translated = new BitSet();
 	}
-	
+
 	public String getIdentifier() {
 		return identifier;
 	}
-	
+
 	public String getComment() {
 		return comment;
 	}
-	
-	public String getValue(String key) {
-		return values.get(key);
+
+	public void setComment(String comment) {
+		this.comment = comment;
+	}
+
+	public void setFileStamp(long length, long lastModified) {
+		this.fileLength = length;
+		this.fileLastModified = lastModified;
+	}
+
+	/**
+	 * @return true if the language was read from its file or written to it
+	 */
+	public boolean hasFileStamp() {
+		return fileLength != -1;
+	}
+
+	/**
+	 * @return true if the file has the size and date it had when it was last read or written
+	 */
+	public boolean isFileUnchanged(File file) {
+		return file.length() == fileLength && file.lastModified() == fileLastModified;
+	}
+
+	/**
+	 * @return true if the values are in memory
+	 */
+	public boolean isLoaded() {
+		if (values != null)
+			return true;
+		SoftReference<ValueColumn> soft = softValues;
+		return soft != null && soft.get() != null;
+	}
+
+	/**
+	 * Forgets the values of a language that can be loaded again and has no
+	 * modified values, so they are read again when needed
+	 */
+	public synchronized void unload() {
+		if (loader != null && !hasModifiedValues()) {
+			values = null;
+			softValues = null;
+		}
+	}
+
+	private ValueColumn values() {
+		ValueColumn column = values;
+		if (column != null)
+			return column;
+		SoftReference<ValueColumn> soft = softValues;
+		column = soft == null ? null : soft.get();
+		if (column != null)
+			return column;
+		return load();
+	}
+
+	private synchronized ValueColumn load() {
+		ValueColumn column = values;
+		if (column == null && softValues != null)
+			column = softValues.get();
+		if (column == null) {
+			column = new ValueColumn(loader.loadValues(this));
+			softValues = new SoftReference<ValueColumn>(column);
+		}
+		return column;
+	}
+
+	/**
+	 * Gives the values read by the caller, unless they were loaded meanwhile
+	 *
+	 * @param column the values by key id
+	 */
+	public synchronized void setLoadedValues(String[] column) {
+		if (loader != null && !isLoaded())
+			softValues = new SoftReference<ValueColumn>(new ValueColumn(column));
+	}
+
+	public String getValue(int keyId) {
+		return values().get(keyId);
+	}
+
+	public void putValue(int keyId, String value) {
+		values().set(keyId, value);
+		setTranslated(keyId, value != null && !value.equals(""));
+	}
+
+	/**
+	 * Records if a key has a value that isn't empty, for the values that
+	 * aren't loaded
+	 */
+	public void setTranslated(int keyId, boolean hasValue) {
+		if (hasValue != translated.get(keyId)) {
+			translated.set(keyId, hasValue);
+			translatedCount += hasValue ? 1 : -1;
+		}
+	}
+
+	/**
+	 * @return true if the key has a value that isn't empty, without loading the values
+	 */
+	public boolean isTranslated(int keyId) {
+		return translated.get(keyId);
+	}
+
+	/**
+	 * @return the number of keys with a value that isn't empty
+	 */
+	public int getTranslatedCount() {
+		return translatedCount;
+	}
+
+	/**
+	 * @return a copy of the ids of the keys with a value that isn't empty
+	 */
+	public BitSet getTranslated() {
+		return (BitSet) translated.clone();
+	}
+
+	/**
+	 * @return the normalized value, computed the first time it is asked for
+	 * @see TextMatcher#normalize(String)
+	 */
+	public String getNormalizedValue(int keyId) {
+		return values().getNormalized(keyId);
+	}
+
+	/**
+	 * @return the values as they are now, which later changes don't affect
+	 * @see ValueColumn#snapshot()
+	 */
+	public ValueColumn snapshot() {
+		return values().snapshot();
+	}
+
+	/**
+	 * Changes a value, remembering that it was modified. The values of the
+	 * language are kept in memory until they are saved.
+	 */
+	public void modifyValue(int keyId, String value) {
+		values = values();
+		putValue(keyId, value);
+		modifiedValues.set(keyId);
+	}
+
+	/**
+	 * Forgets the values that aren't modified, once the file of the language
+	 * is removed. The values aren't loaded again from then on, since there is
+	 * no file to load them from.
+	 *
+	 * @param removedValues set where the ids of the keys whose value was forgotten are added
+	 */
+	public synchronized void fileRemoved(BitSet removedValues) {
+		ValueColumn column = isLoaded() ? values() : new ValueColumn();
+		BitSet keyIds = (BitSet) translated.clone();
+		for (int keyId = 0; keyId < column.length(); keyId++)
+			if (column.get(keyId) != null)
+				keyIds.set(keyId);
+		for (int keyId = keyIds.nextSetBit(0); keyId >= 0; keyId = keyIds.nextSetBit(keyId + 1)) {
+			if (!modifiedValues.get(keyId)) {
+				column.set(keyId, null);
+				setTranslated(keyId, false);
+				removedValues.set(keyId);
+			}
+		}
+		values = column;
+		softValues = null;
+		loader = null;
+		setFileStamp(-1, -1);
+	}
+
+	public boolean isModifiedValue(int keyId) {
+		return modifiedValues.get(keyId);
+	}
+
+	public boolean hasModifiedValues() {
+		return !modifiedValues.isEmpty();
+	}
+
+	/**
+	 * @return a copy of the ids of the keys whose value was changed
+	 */
+	public BitSet getModifiedValues() {
+		return (BitSet) modifiedValues.clone();
 	}
-	
-	public void putValue(String key, String value) {
-		values.put(key, value);
+
+	/**
+	 * Forgets that the values of a snapshot were modified, once they are
+	 * saved, except the ones changed again since it was taken
+	 *
+	 * @param keyIds the ids of the keys modified when the snapshot was taken
+	 * @param saved the values saved
+	 */
+	public void clearModifiedValues(BitSet keyIds, ValueColumn saved) {
+		ValueColumn column = values();
+		for (int keyId = keyIds.nextSetBit(0); keyId >= 0; keyId = keyIds.nextSetBit(keyId + 1))
+			if (column.get(keyId) == saved.get(keyId))
+				modifiedValues.clear(keyId);
+		if (modifiedValues.isEmpty() && loader != null && values != null) {
+			softValues = new SoftReference<ValueColumn>(values);
+			values = null;
+		}
 	}
 }
@@ -0,0 +1,168 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Contents of the XML file of a language, read apart from any
+ * {@link LangManager} so that several files can be parsed at the same time.
+ * The manager merges them afterwards.
+ */
+public class LanguageFile implements LangFileReader.Handler {
+
+	private static ExecutorService executor;
+
+	private File file;
+
+	/**
+	 * Size and modification date of the file when it was read
+	 */
+	private long length;
+
+	private long lastModified;
+
+	/**
+	 * If the contents were taken from the {@link LangCache} instead of the file
+	 */
+	private boolean cached;
+
+	private String identifier;
+
+	private String comment;
+
+	private List<String> keys;
+
+	private List<String> values;
+
+	public LanguageFile(File file) {
+		this(file, file.length(), file.lastModified(), false);
+	}
+
+	public LanguageFile(File file, long length, long lastModified, boolean cached) {
+		this.file = file;
+		this.length = length;
+		this.lastModified = lastModified;
+		this.cached = cached;
+		this.identifier = getIdentifier(file);
+		this.keys = new ArrayList<String>();
+		this.values = new ArrayList<String>();
+	}
+
+	/**
+	 * @return the identifier of the language of a file, its name without extension
+	 */
+	public static String getIdentifier(File file) {
+		return file.getName().substring(0, file.getName().length() - 4);
+	}
+
+	public static boolean isLanguageFile(File file) {
+		return file.isFile() && file.getName().endsWith(".xml");
+	}
+
+	/**
+	 * Reads a file in the background, from the snapshot of its folder if it
+	 * didn't change since it was taken
+	 *
+	 * @param file the XML file of a language
+	 * @param cache the snapshot of the folder, or null
+	 * @param keysOnly if true, the values aren't taken from the snapshot. Files
+	 *        that must be parsed are always read whole, so the snapshot can be
+	 *        written again.
+	 * @return the contents of the file, or null in the future if it couldn't be read
+	 */
+	public static Future<LanguageFile> parse(final File file, final LangCache cache, final boolean keysOnly) {
+		return getExecutor().submit(new Callable<LanguageFile>() {
+			public LanguageFile call() {
+				if (cache != null) {
+					LanguageFile cached = cache.read(file, keysOnly);
+					if (cached != null)
+						return cached;
+				}
+				LanguageFile languageFile = new LanguageFile(file);
+				try {
+					LangFileReader.read(file, languageFile);
+					return languageFile;
+				} catch (IOException e) {
+					System.err.println("Error reading " + file);
+					e.printStackTrace();
+					return null;
+				}
+			}
+		});
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Language file loader");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	public void comment(String comment) {
+		this.comment = comment;
+	}
+
+	/**
+	 * Keeps an entry, with its key and value taken from the {@link StringPool}
+	 */
+	public void entry(String key, String value) {
+		keys.add(StringPool.intern(key));
+		values.add(StringPool.intern(value));
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public boolean isCached() {
+		return cached;
+	}
+
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	/**
+	 * @return the comment of the file, or null if it has none
+	 */
+	public String getComment() {
+		return comment;
+	}
+
+	public int getEntryCount() {
+		return keys.size();
+	}
+
+	public String getKey(int index) {
+		return keys.get(index);
+	}
+
+	/**
+	 * @return the value of an entry, or null if only the keys were read from
+	 *         the snapshot and the value isn't empty
+	 */
+	public String getValue(int index) {
+		return values.get(index);
+	}
+}
@@ -3,12 +3,28 @@ package es.eucm.eadventure.lanassistant;
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
 import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -16,10 +32,20 @@ import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
 import javax.swing.JTextField;
+import javax.swing.JTree;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
-import javax.swing.text.BadLocationException;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import javax.swing.event.TreeSelectionEvent;
+import javax.swing.event.TreeSelectionListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.tree.TreePath;
 
 /**
  * The main window of the system, where the keys are changed, added, parsed from the code, etc.
@@ -44,6 +70,16 @@ public class MainWindow extends JFrame {
 	 */
 	private JButton updateFilesButton;
 	
+	/**
+	 * Check box used to update the content of the files automatically when they change
+	 */
+	private JCheckBox autoUpdateCheckBox;
+	
+	/**
+	 * Watcher of the language folders, while the files are updated automatically
+	 */
+	private LangFileWatcher fileWatcher;
+	
 	/**
 	 * Button used to parse the code for new keys
 	 */
@@ -61,6 +97,25 @@ public class MainWindow extends JFrame {
 	
 	private JButton removeUnusedButton;
 	
+	/**
+	 * Buttons used to undo and redo the edits of the values
+	 */
+	private JButton undoButton;
+	
+	private JButton redoButton;
+	
+	/**
+	 * Buttons used to export and import the keys and values in other formats
+	 */
+	private JButton exportButton;
+	
+	private JButton importButton;
+	
+	/**
+	 * Button used to find the keys with duplicate values
+	 */
+	private JButton findDuplicatesButton;
+	
 	/**
 	 * Button used to add a new key
 	 */
@@ -76,6 +131,67 @@ public class MainWindow extends JFrame {
 	 */
 	private JTextField searchTextField;
 	
+	/**
+	 * Combo used to choose how the search text is matched
+	 */
+	private JComboBox<SearchMode> searchModeComboBox;
+	
+	/**
+	 * Time to wait after the search text changes before searching
+	 */
+	private static final int SEARCH_DELAY = 150;
+	
+	/**
+	 * Timer that starts the search once the search text stops changing
+	 */
+	private Timer searchTimer;
+	
+	/**
+	 * Thread where searches are done
+	 */
+	private ExecutorService searchExecutor;
+
+	/**
+	 * Thread where the files are saved and the source code is scanned, from
+	 * snapshots of the managers, while they are edited
+	 */
+	private ExecutorService backgroundExecutor;
+	
+	/**
+	 * Number of the last search started, so older searches are abandoned
+	 */
+	private volatile int searchGeneration;
+	
+	/**
+	 * Check box used to show only the modified keys
+	 */
+	private JCheckBox modifiedOnlyCheckBox;
+	
+	/**
+	 * Check box used to show only the keys without value in the language of the second column
+	 */
+	private JCheckBox untranslatedOnlyCheckBox;
+	
+	/**
+	 * Button used to go to the next key without value in the language of the second column
+	 */
+	private JButton nextUntranslatedButton;
+	
+	/**
+	 * Button used to suggest a translation for the selected key from the translation memory
+	 */
+	private JButton suggestTranslationButton;
+	
+	/**
+	 * Label with the percentage of keys with value in the languages shown
+	 */
+	private JLabel completenessLabel;
+
+	/**
+	 * Label with the use of the string pool after the last load
+	 */
+	private JLabel poolLabel;
+	
 	/**
 	 * String with the project path
 	 */
@@ -103,6 +219,18 @@ public class MainWindow extends JFrame {
 	 */
 	private LangTable table;
 	
+	/**
+	 * Tree with the namespaces of the keys, used to show only the keys of one of them
+	 */
+	private JTree namespaceTree;
+
+	/**
+	 * If the namespace tree is being reloaded, so its selection events don't change the filter
+	 */
+	private boolean reloadingKeyTree;
+	
+	private KeyTreeModel keyTreeModel;
+	
 	/**
 	 * Combo boxes used to set the language shown in each column
 	 */
@@ -114,6 +242,8 @@ public class MainWindow extends JFrame {
 	public MainWindow() {
 	    addWindowListener(new WindowAdapter() {
 	        public void windowClosing(WindowEvent e) {
+	        	if (!hasUnsavedChanges())
+	        		System.exit(0);
 	        	int option = JOptionPane.showConfirmDialog(MainWindow.this, "Save changes?", "Save changes", JOptionPane.YES_NO_OPTION);
 	        	if (option == JOptionPane.YES_OPTION) {
 	    			editorLangManager.saveChanges();
@@ -121,6 +251,7 @@ public class MainWindow extends JFrame {
 	    			if (LangAssistant.INCLUDE_WEEV)
 	    				weevLangManager.saveChanges();
 	        	}
+	        	closeJournals(option == JOptionPane.YES_OPTION);
 	        	System.exit(0);
 	        }
 	      });
@@ -130,6 +261,8 @@ public class MainWindow extends JFrame {
 		loadFilesButton.addActionListener(new LoadFilesActionListener());
 		updateFilesButton = new JButton("Update proyect files");
 		updateFilesButton.addActionListener(new UpdateFilesActionListener());
+		autoUpdateCheckBox = new JCheckBox("Auto update");
+		autoUpdateCheckBox.addActionListener(new AutoUpdateActionListener());
 		JButton editHelp = new JButton("Edit help");
 		editHelp.addActionListener(new EditHelpActionListener());
 		parseCodeButton = new JButton("Parse source code");
@@ -138,6 +271,16 @@ public class MainWindow extends JFrame {
 		saveChangesButton.addActionListener(new SaveChangesActionListener());
 		removeUnusedButton = new JButton("Remove unused");
 		removeUnusedButton.addActionListener(new RemoveUnusedActionListener());
+		undoButton = new JButton("Undo");
+		undoButton.addActionListener(new UndoActionListener(true));
+		redoButton = new JButton("Redo");
+		redoButton.addActionListener(new UndoActionListener(false));
+		exportButton = new JButton("Export");
+		exportButton.addActionListener(new ExportActionListener());
+		importButton = new JButton("Import");
+		importButton.addActionListener(new ImportActionListener());
+		findDuplicatesButton = new JButton("Find duplicates");
+		findDuplicatesButton.addActionListener(new FindDuplicatesActionListener());
 		partComboBox = new JComboBox(new String[] {"Engine", "Editor", "WEEV"});
 		partComboBox.addActionListener(new PartComboActionListener());
 		
@@ -148,22 +291,57 @@ public class MainWindow extends JFrame {
 		
 		searchTextField = new JTextField(30);
 		searchTextField.getDocument().addDocumentListener(new SearchDocumentListener());
+		searchModeComboBox = new JComboBox<SearchMode>(SearchMode.values());
+		searchModeComboBox.addActionListener(new SearchActionListener());
+		searchTimer = new Timer(SEARCH_DELAY, new SearchActionListener());
+		searchTimer.setRepeats(false);
+		searchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Search");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		backgroundExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Background");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		modifiedOnlyCheckBox = new JCheckBox("Modified only");
+		modifiedOnlyCheckBox.addActionListener(new ModifiedOnlyActionListener());
+		untranslatedOnlyCheckBox = new JCheckBox("Untranslated only");
+		untranslatedOnlyCheckBox.addActionListener(new UntranslatedOnlyActionListener());
 		
 		buttonPanel.add(loadFilesButton);
 		buttonPanel.add(editHelp);
 		if (!LangAssistant.EXTERNAL) {
 			buttonPanel.add(updateFilesButton);
+			buttonPanel.add(autoUpdateCheckBox);
 			buttonPanel.add(parseCodeButton);
 			buttonPanel.add(removeUnusedButton);
 		}
+		buttonPanel.add(undoButton);
+		buttonPanel.add(redoButton);
+		buttonPanel.add(findDuplicatesButton);
+		buttonPanel.add(exportButton);
+		buttonPanel.add(importButton);
 		buttonPanel.add(saveChangesButton);
 		
+		getRootPane().registerKeyboardAction(new UndoActionListener(true), KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK), JComponent.WHEN_IN_FOCUSED_WINDOW);
+		getRootPane().registerKeyboardAction(new UndoActionListener(false), KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), JComponent.WHEN_IN_FOCUSED_WINDOW);
+		
 		JPanel comboPanel = new JPanel();
 		comboPanel.add(partComboBox);
 		comboPanel.add(languageComboBox[0]);
 		comboPanel.add(languageComboBox[1]);
 		comboPanel.add(new JLabel("Search:"));
 		comboPanel.add(searchTextField);
+		comboPanel.add(searchModeComboBox);
+		comboPanel.add(modifiedOnlyCheckBox);
+		comboPanel.add(untranslatedOnlyCheckBox);
 		
 		this.setLayout(new BorderLayout());
 		
@@ -174,22 +352,49 @@ public class MainWindow extends JFrame {
 		this.add(topPanel, BorderLayout.NORTH);
 	
 		langTableModel = new LangTableModel();
+		langTableModel.addTableModelListener(new TableModelListener() {
+			public void tableChanged(TableModelEvent e) {
+				updateCompleteness();
+				updateUndoButtons();
+			}
+		});
+		updateUndoButtons();
 		table = new LangTable(langTableModel);
 
 		JScrollPane scrollPane = new JScrollPane(table);
 		
-		this.add(scrollPane, BorderLayout.CENTER);
+		keyTreeModel = new KeyTreeModel();
+		namespaceTree = new JTree(keyTreeModel);
+		namespaceTree.addTreeSelectionListener(new NamespaceSelectionListener());
+		JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, new JScrollPane(namespaceTree), scrollPane);
+		splitPane.setDividerLocation(200);
+		
+		this.add(splitPane, BorderLayout.CENTER);
 		
 		addNewLanguageButton = new JButton("Add new language");
 		addNewKeyButton = new JButton("Add new key");
 		
+		nextUntranslatedButton = new JButton("Next untranslated");
+		nextUntranslatedButton.addActionListener(new NextUntranslatedActionListener());
+		completenessLabel = new JLabel();
+		poolLabel = new JLabel();
+		suggestTranslationButton = new JButton("Suggest translation");
+		suggestTranslationButton.addActionListener(new SuggestTranslationActionListener());
+		
 		JPanel bottomPanel = new JPanel();
+		bottomPanel.add(completenessLabel);
+		bottomPanel.add(nextUntranslatedButton);
+		bottomPanel.add(suggestTranslationButton);
 		bottomPanel.add(addNewLanguageButton);
 		addNewLanguageButton.addActionListener(new AddNewLanguageActionListener());
 		if (!LangAssistant.EXTERNAL)
 			bottomPanel.add(addNewKeyButton);
 		addNewKeyButton.addActionListener(new AddNewKeyActionListener());
-		this.add(bottomPanel, BorderLayout.SOUTH);
+		JPanel southPanel = new JPanel();
+		southPanel.setLayout(new BorderLayout());
+		southPanel.add(bottomPanel, BorderLayout.NORTH);
+		southPanel.add(poolLabel, BorderLayout.SOUTH);
+		this.add(southPanel, BorderLayout.SOUTH);
 		
 		this.setSize(850, 700);
 		this.setVisible(true);
@@ -221,6 +426,15 @@ public class MainWindow extends JFrame {
 		}
 	}
 
+	/**
+	 * Class that implements the "Auto update" action listener
+	 */
+	private class AutoUpdateActionListener implements ActionListener {
+		public void actionPerformed(ActionEvent e) {
+			updateFileWatcher();
+		}
+	}
+
 	private class EditHelpActionListener implements ActionListener {
 		public void actionPerformed(ActionEvent e) {
 			new HelpEditor(projectFolder);
@@ -239,7 +453,8 @@ public class MainWindow extends JFrame {
 			CodeParser.parseCode(projectFolder + File.separator + "src/es/eucm/eadventure/engine", engineLangManager);
 			if (LangAssistant.INCLUDE_WEEV)
 				CodeParser.parseCode(projectFolder + File.separator + "src/es/eucm/eadventure/weev" , weevLangManager);
-			langTableModel.fireTableDataChanged();
+			reloadKeyTree();
+			startSearch();
 		}
 	}
 
@@ -251,12 +466,25 @@ public class MainWindow extends JFrame {
 	 */
 	private class SaveChangesActionListener implements ActionListener {
 		public void actionPerformed(ActionEvent e) {
-			editorLangManager.saveChanges();
-			engineLangManager.saveChanges();
-			if (LangAssistant.INCLUDE_WEEV)
-				weevLangManager.saveChanges();
-			if (!LangAssistant.EXTERNAL)
-				JOptionPane.showMessageDialog(MainWindow.this, "Remember to refresh the language folders in Eclipse", "Changes saved", JOptionPane.INFORMATION_MESSAGE);
+			final LangManager editor = editorLangManager;
+			final LangManager engine = engineLangManager;
+			final LangManager weev = weevLangManager;
+			saveChangesButton.setEnabled(false);
+			backgroundExecutor.execute(new Runnable() {
+				public void run() {
+					editor.saveChanges();
+					engine.saveChanges();
+					if (LangAssistant.INCLUDE_WEEV)
+						weev.saveChanges();
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							saveChangesButton.setEnabled(true);
+							if (!LangAssistant.EXTERNAL)
+								JOptionPane.showMessageDialog(MainWindow.this, "Remember to refresh the language folders in Eclipse", "Changes saved", JOptionPane.INFORMATION_MESSAGE);
+						}
+					});
+				}
+			});
 		}
 	}
 	
@@ -266,25 +494,305 @@ public class MainWindow extends JFrame {
 		}
 
 		public void insertUpdate(DocumentEvent e) {
-			updateSearch(e);
+			searchTimer.restart();
 		}
 
 		public void removeUpdate(DocumentEvent e) {
-			updateSearch(e);
+			searchTimer.restart();
+		}
+	}
+
+	/**
+	 * Starts the search when the search text stops changing or the search mode is changed
+	 */
+	private class SearchActionListener implements ActionListener {
+		public void actionPerformed(ActionEvent e) {
+			startSearch();
+		}
+	}
+
+	/**
+	 * Searches the text of the search field, with the filters of the manager,
+	 * in the background. Only the result of the last search started is shown,
+	 * and the searches started before are abandoned, even while they run.
+	 */
+	private void startSearch() {
+		final LangManager langManager = getSelectedLangManager();
+		if (langManager == null)
+			return;
+		final String text = searchTextField.getText();
+		final SearchMode mode = (SearchMode) searchModeComboBox.getSelectedItem();
+		final int generation = ++searchGeneration;
+		searchExecutor.execute(new Runnable() {
+			public void run() {
+				if (generation != searchGeneration)
+					return;
+				final LangManager.SearchResult result = langManager.findKeys(text, mode, new LangManager.Cancellation() {
+					public boolean isCancelled() {
+						return generation != searchGeneration;
+					}
+				});
+				if (result.isCancelled())
+					return;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if (generation != searchGeneration || langManager != getSelectedLangManager())
+							return;
+						if (langManager.showKeys(result))
+							langTableModel.fireTableDataChanged();
+						else
+							startSearch();
+					}
+				});
+			}
+		});
+	}
+
+	private class ModifiedOnlyActionListener implements ActionListener {
+		public void actionPerformed(ActionEvent e) {
+			LangManager langManager = getSelectedLangManager();
+			if (langManager != null) {
+				langManager.setModifiedOnly(modifiedOnlyCheckBox.isSelected());
+				startSearch();
+			}
+		}
+	}
+
+	/**
+	 * Shows only the keys of the namespace selected in the tree
+	 */
+	private class NamespaceSelectionListener implements TreeSelectionListener {
+		public void valueChanged(TreeSelectionEvent e) {
+			LangManager langManager = getSelectedLangManager();
+			if (langManager == null || reloadingKeyTree)
+				return;
+			TreePath path = namespaceTree.getSelectionPath();
+			KeyTrie.Node node = path == null ? null : (KeyTrie.Node) path.getLastPathComponent();
+			langManager.setNamespace(node == null || node.getParent() == null ? null : node.getNamespace());
+			startSearch();
+		}
+	}
+
+	/**
+	 * Shows the namespaces again after the keys changed, keeping the namespace
+	 * selected, or showing all the keys if it doesn't exist anymore
+	 */
+	private void reloadKeyTree() {
+		LangManager langManager = getSelectedLangManager();
+		TreePath path = namespaceTree.getSelectionPath();
+		KeyTrie.Node selected = path == null ? null : (KeyTrie.Node) path.getLastPathComponent();
+		String namespace = selected == null || selected.getParent() == null ? null : selected.getNamespace();
+		reloadingKeyTree = true;
+		try {
+			keyTreeModel.reload();
+			KeyTrie.Node node = namespace == null || langManager == null ? null : langManager.getKeyTrie().find(namespace);
+			if (node != null) {
+				List<Object> nodes = new ArrayList<Object>();
+				for (; node != null; node = node.getParent())
+					nodes.add(0, node);
+				namespaceTree.setSelectionPath(new TreePath(nodes.toArray()));
+			} else if (namespace != null) {
+				langManager.setNamespace(null);
+				startSearch();
+			}
+		} finally {
+			reloadingKeyTree = false;
+		}
+	}
+
+	private class UntranslatedOnlyActionListener implements ActionListener {
+		public void actionPerformed(ActionEvent e) {
+			if (getSelectedLangManager() != null)
+				updateUntranslatedOnly();
+		}
+	}
+
+	/**
+	 * Selects the next key without value in the language of the second column
+	 */
+	private class NextUntranslatedActionListener implements ActionListener {
+		public void actionPerformed(ActionEvent e) {
+			LangManager langManager = getSelectedLangManager();
+			if (langManager == null)
+				return;
+			int langIndex = langManager.getLanguageIndex((String) languageComboBox[1].getSelectedItem());
+			int row = langManager.getNextUntranslatedRow(table.getSelectedRow(), langIndex);
+			if (row != -1)
+				table.changeSelection(row, 2, false, false);
+		}
+	}
+
+	/**
+	 * Undoes or redoes the last edit of a value, selecting its key if it is shown
+	 */
+	private class UndoActionListener implements ActionListener {
+		
+		private boolean undo;
+		
+		public UndoActionListener(boolean undo) {
+			this.undo = undo;
 		}
 		
-		private void updateSearch(DocumentEvent e) {
+		public void actionPerformed(ActionEvent e) {
+			LangManager langManager = getSelectedLangManager();
+			if (langManager == null)
+				return;
+			if (table.isEditing())
+				table.getCellEditor().cancelCellEditing();
+			int keyId = undo ? langManager.undo() : langManager.redo();
+			if (keyId == -1)
+				return;
+			int row = langManager.getRow(keyId);
+			if (row != -1) {
+				langTableModel.fireTableRowsUpdated(row, row);
+				table.changeSelection(row, 0, false, false);
+			} else
+				langTableModel.fireTableDataChanged();
+		}
+	}
+
+	/**
+	 * Suggests a translation to the language of the second column for the
+	 * value of the selected key in the language of the first column, and
+	 * sets the one chosen
+	 */
+	private class SuggestTranslationActionListener implements ActionListener {
+		public void actionPerformed(ActionEvent e) {
+			LangManager langManager = getSelectedLangManager();
+			int row = table.getSelectedRow();
+			if (langManager == null || row == -1)
+				return;
+			int sourceIndex = langManager.getLanguageIndex((String) languageComboBox[0].getSelectedItem());
+			int targetIndex = langManager.getLanguageIndex((String) languageComboBox[1].getSelectedItem());
+			List<TranslationMemory.Suggestion> suggestions = langManager.suggestTranslations(langManager.getKeyId(row), sourceIndex, targetIndex, 10);
+			if (suggestions.isEmpty()) {
+				JOptionPane.showMessageDialog(MainWindow.this, "There are no similar values with a translation", "Suggest translation", JOptionPane.INFORMATION_MESSAGE);
+				return;
+			}
+			Object selected = JOptionPane.showInputDialog(MainWindow.this, "Translation for " + langManager.getKey(row), "Suggest translation", JOptionPane.QUESTION_MESSAGE, null, suggestions.toArray(), suggestions.get(0));
+			if (selected != null)
+				langTableModel.setValueAt(((TranslationMemory.Suggestion) selected).getTranslation(), row, 2);
+		}
+	}
+
+	/**
+	 * Exports the keys and values of the selected part to a file, in the
+	 * format of its extension, with the languages of the columns, or all the
+	 * languages for the formats that take any number
+	 */
+	private class ExportActionListener implements ActionListener {
+		public void actionPerformed(ActionEvent e) {
+			LangManager langManager = getSelectedLangManager();
+			if (langManager == null)
+				return;
+			File file = chooseFormatFile(true);
+			if (file == null)
+				return;
+			LangFormat format = LangFormats.forFile(file);
+			String[] languages;
+			if (format.getLanguageCount() == 0)
+				languages = langManager.getLangIDs();
+			else if (format.getLanguageCount() == 1)
+				languages = new String[] {(String) languageComboBox[0].getSelectedItem()};
+			else
+				languages = new String[] {(String) languageComboBox[0].getSelectedItem(), (String) languageComboBox[1].getSelectedItem()};
+			try {
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+				int count;
+				try {
+					count = langManager.export(format, out, languages);
+				} finally {
+					out.close();
+				}
+				JOptionPane.showMessageDialog(MainWindow.this, count + " keys exported", "Export", JOptionPane.INFORMATION_MESSAGE);
+			} catch (IOException ex) {
+				JOptionPane.showMessageDialog(MainWindow.this, "Couldn't export to " + file + ": " + ex.getMessage(), "Export", JOptionPane.ERROR_MESSAGE);
+			}
+		}
+	}
+
+	/**
+	 * Imports the values of a file that are different from the ones of the
+	 * selected part, once the number of changes is confirmed
+	 */
+	private class ImportActionListener implements ActionListener {
+		public void actionPerformed(ActionEvent e) {
+			LangManager langManager = getSelectedLangManager();
+			if (langManager == null)
+				return;
+			File file = chooseFormatFile(false);
+			if (file == null)
+				return;
+			LangFormat format = LangFormats.forFile(file);
+			String[] languages = new String[] {(String) languageComboBox[0].getSelectedItem(), (String) languageComboBox[1].getSelectedItem()};
+			if (format.getLanguageCount() == 1) {
+				String language = LangFormats.getBaseName(file);
+				if (langManager.getLanguageIndex(language) == -1)
+					language = (String) JOptionPane.showInputDialog(MainWindow.this, "Language of " + file.getName(), "Import", JOptionPane.QUESTION_MESSAGE, null, langManager.getLangIDs(), languages[1]);
+				if (language == null)
+					return;
+				languages = new String[] {language};
+			}
 			try {
-				if (partComboBox.getSelectedIndex() == 0)
-					engineLangManager.search(e.getDocument().getText(0, e.getDocument().getLength()));
-				else if (partComboBox.getSelectedIndex() == 1)
-					editorLangManager.search(e.getDocument().getText(0, e.getDocument().getLength()));
-				else
-					weevLangManager.search(e.getDocument().getText(0, e.getDocument().getLength()));
-			} catch (BadLocationException e1) {
-				e1.printStackTrace();
+				List<LangManager.ValueChange> changes;
+				InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+				try {
+					changes = langManager.diff(format, in, languages);
+				} finally {
+					in.close();
+				}
+				if (changes.isEmpty()) {
+					JOptionPane.showMessageDialog(MainWindow.this, "The file has no new values", "Import", JOptionPane.INFORMATION_MESSAGE);
+					return;
+				}
+				int option = JOptionPane.showConfirmDialog(MainWindow.this, changes.size() + " values will change. Import them?", "Import", JOptionPane.YES_NO_OPTION);
+				if (option != JOptionPane.YES_OPTION)
+					return;
+				int langCount = langManager.getLangIDs().length;
+				langManager.applyChanges(changes);
+				if (langManager.getLangIDs().length != langCount)
+					updateLanguageComboBoxes(langManager);
+				reloadKeyTree();
+				langTableModel.fireTableDataChanged();
+			} catch (IOException ex) {
+				JOptionPane.showMessageDialog(MainWindow.this, "Couldn't import " + file + ": " + ex.getMessage(), "Import", JOptionPane.ERROR_MESSAGE);
 			}
-			langTableModel.fireTableDataChanged();
+		}
+	}
+
+	/**
+	 * Asks for a file in one of the formats of {@link LangFormats}, adding the
+	 * extension of the format chosen if the name has none
+	 *
+	 * @param save if the file is going to be written
+	 * @return the file, or null if none was chosen
+	 */
+	private File chooseFormatFile(boolean save) {
+		JFileChooser fc = new JFileChooser();
+		for (LangFormat format : LangFormats.getFormats())
+			fc.addChoosableFileFilter(new FileNameExtensionFilter(format.getName() + " (*." + format.getExtension() + ")", format.getExtension()));
+		if ((save ? fc.showSaveDialog(MainWindow.this) : fc.showOpenDialog(MainWindow.this)) != JFileChooser.APPROVE_OPTION)
+			return null;
+		File file = fc.getSelectedFile();
+		if (LangFormats.forFile(file) == null && fc.getFileFilter() instanceof FileNameExtensionFilter)
+			file = new File(file.getPath() + "." + ((FileNameExtensionFilter) fc.getFileFilter()).getExtensions()[0]);
+		if (LangFormats.forFile(file) == null) {
+			JOptionPane.showMessageDialog(MainWindow.this, "Unknown format of " + file.getName(), "Wrong file", JOptionPane.ERROR_MESSAGE);
+			return null;
+		}
+		return file;
+	}
+
+	/**
+	 * Shows the languages of a manager in the language combo boxes, after
+	 * some were added, keeping the languages selected
+	 */
+	private void updateLanguageComboBoxes(LangManager langManager) {
+		String[] languages = langManager.getLangIDs();
+		for (int i = 0; i < languageComboBox.length; i++) {
+			Object selected = languageComboBox[i].getSelectedItem();
+			languageComboBox[i].setModel(new DefaultComboBoxModel<String>(languages));
+			languageComboBox[i].setSelectedItem(selected);
 		}
 	}
 
@@ -295,35 +803,17 @@ public class MainWindow extends JFrame {
 				String newLanguage = JOptionPane.showInputDialog(MainWindow.this, "New language", "Add new language", JOptionPane.QUESTION_MESSAGE);
 				
 				boolean added = editorLangManager.addLanguage(newLanguage, "comment" + newLanguage);
-				if (added && partComboBox.getSelectedIndex() == 1) {
-					Object selected = languageComboBox[0].getSelectedItem();
-					languageComboBox[0].setModel(new DefaultComboBoxModel(editorLangManager.getLangIDs()));
-					languageComboBox[0].setSelectedItem(selected);
-					selected = languageComboBox[1].getSelectedItem();
-					languageComboBox[1].setModel(new DefaultComboBoxModel(editorLangManager.getLangIDs()));
-					languageComboBox[1].setSelectedItem(selected);
-				}
+				if (added && partComboBox.getSelectedIndex() == 1)
+					updateLanguageComboBoxes(editorLangManager);
 				
 				added = engineLangManager.addLanguage(newLanguage, "comment" + newLanguage);
-				if (added && partComboBox.getSelectedIndex() == 0) {
-					Object selected = languageComboBox[0].getSelectedItem();
-					languageComboBox[0].setModel(new DefaultComboBoxModel(engineLangManager.getLangIDs()));
-					languageComboBox[0].setSelectedItem(selected);
-					selected = languageComboBox[1].getSelectedItem();
-					languageComboBox[1].setModel(new DefaultComboBoxModel(engineLangManager.getLangIDs()));
-					languageComboBox[1].setSelectedItem(selected);
-				}
+				if (added && partComboBox.getSelectedIndex() == 0)
+					updateLanguageComboBoxes(engineLangManager);
 				
 				if (LangAssistant.INCLUDE_WEEV) {
 					added = weevLangManager.addLanguage(newLanguage, "comment" + newLanguage);
-					if (added && partComboBox.getSelectedIndex() == 2) {
-						Object selected = languageComboBox[0].getSelectedItem();
-						languageComboBox[0].setModel(new DefaultComboBoxModel(weevLangManager.getLangIDs()));
-						languageComboBox[0].setSelectedItem(selected);
-						selected = languageComboBox[1].getSelectedItem();
-						languageComboBox[1].setModel(new DefaultComboBoxModel(weevLangManager.getLangIDs()));
-						languageComboBox[1].setSelectedItem(selected);
-					}
+					if (added && partComboBox.getSelectedIndex() == 2)
+						updateLanguageComboBoxes(weevLangManager);
 				}
 
 			}
@@ -340,8 +830,12 @@ public class MainWindow extends JFrame {
 				row = engineLangManager.addKey(newKey);
 			if (partComboBox.getSelectedIndex() == 2)
 				row = weevLangManager.addKey(newKey);
+			reloadKeyTree();
 			langTableModel.fireTableDataChanged();
-			table.changeSelection(row, 0, true, true);
+			if (row != -1)
+				table.changeSelection(row, 0, true, true);
+			else
+				JOptionPane.showMessageDialog(MainWindow.this, "The key was added, but the current search or filters hide it", "Add new key", JOptionPane.INFORMATION_MESSAGE);
 		}
 	}
 
@@ -360,19 +854,60 @@ public class MainWindow extends JFrame {
 				languageComboBox[0].setModel(new DefaultComboBoxModel(weevLangManager.getLangIDs()));
 				languageComboBox[1].setModel(new DefaultComboBoxModel(weevLangManager.getLangIDs()));
 			}
+			if (getSelectedLangManager() != null)
+				getSelectedLangManager().setModifiedOnly(modifiedOnlyCheckBox.isSelected());
+			keyTreeModel.setLangManager(getSelectedLangManager());
+			startSearch();
 			languageComboBox[0].setSelectedIndex(0);
 			languageComboBox[1].setSelectedIndex(1);
 		}
 	}
 
+	/**
+	 * Scans the source code for the unused keys in the background, and shows
+	 * the keys found for each part
+	 */
 	private class RemoveUnusedActionListener implements ActionListener {
 		public void actionPerformed(ActionEvent e) {
-			int count = UnusedKeyRemover.unusedKeyRemover(projectFolder + File.separator + "src/es/eucm/eadventure", editorLangManager);
-			count += UnusedKeyRemover.unusedKeyRemover(projectFolder + File.separator + "src/es/eucm/eadventure", engineLangManager);
-			if (LangAssistant.INCLUDE_WEEV)
-				count += UnusedKeyRemover.unusedKeyRemover(projectFolder + File.separator + "src/es/eucm/eadventure/weev", weevLangManager);
-//			langTableModel.fireTableDataChanged();
-			//JOptionPane.showMessageDialog(MainWindow.this, "The key removal process has finished", "Removed " + count + " keys", JOptionPane.INFORMATION_MESSAGE);
+			if (projectFolder == null)
+				return;
+			final String sourceFolder = projectFolder + File.separator + "src/es/eucm/eadventure";
+			final List<LangManager> managers = new ArrayList<LangManager>();
+			final List<String> folders = new ArrayList<String>();
+			managers.add(editorLangManager);
+			folders.add(sourceFolder);
+			managers.add(engineLangManager);
+			folders.add(sourceFolder);
+			if (LangAssistant.INCLUDE_WEEV) {
+				managers.add(weevLangManager);
+				folders.add(projectFolder + File.separator + "src/es/eucm/eadventure/weev");
+			}
+			backgroundExecutor.execute(new Runnable() {
+				public void run() {
+					for (int i = 0; i < managers.size(); i++) {
+						final LangManager langManager = managers.get(i);
+						final List<String> unusedKeys = UnusedKeyRemover.findUnusedKeys(folders.get(i), langManager);
+						SwingUtilities.invokeLater(new Runnable() {
+							public void run() {
+								new UnusedKeysFrame(unusedKeys, langManager);
+							}
+						});
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Shows the keys with duplicate values in the language of the first column
+	 */
+	private class FindDuplicatesActionListener implements ActionListener {
+		public void actionPerformed(ActionEvent e) {
+			LangManager langManager = getSelectedLangManager();
+			if (langManager == null)
+				return;
+			int langIndex = langManager.getLanguageIndex((String) languageComboBox[0].getSelectedItem());
+			new DuplicateValuesFrame(langManager.findDuplicateValues(langIndex), langManager, langIndex);
 		}
 	}
 
@@ -382,11 +917,137 @@ public class MainWindow extends JFrame {
 			this.lang = lang;
 		}
 		public void actionPerformed(ActionEvent e) {
+			if (lang == 1 && getSelectedLangManager() != null)
+				updateUntranslatedOnly();
 			langTableModel.setLang(lang, (String) languageComboBox[lang].getSelectedItem());
 		}
 	}
 	
 	
+	/**
+	 * Shows only the keys without value in the language of the second column,
+	 * following the "Untranslated only" check box
+	 */
+	private void updateUntranslatedOnly() {
+		String lang = untranslatedOnlyCheckBox.isSelected() ? (String) languageComboBox[1].getSelectedItem() : null;
+		getSelectedLangManager().setUntranslatedOnly(lang);
+		startSearch();
+	}
+	
+	/**
+	 * Enables the undo and redo buttons when there is something to undo or redo
+	 */
+	private void updateUndoButtons() {
+		LangManager langManager = getSelectedLangManager();
+		if (undoButton == null)
+			return;
+		undoButton.setEnabled(langManager != null && langManager.canUndo());
+		redoButton.setEnabled(langManager != null && langManager.canRedo());
+	}
+	
+	/**
+	 * Shows the percentage of keys with value in the languages of the columns
+	 */
+	private void updateCompleteness() {
+		LangManager langManager = getSelectedLangManager();
+		if (langManager == null || completenessLabel == null)
+			return;
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < languageComboBox.length; i++) {
+			String lang = (String) languageComboBox[i].getSelectedItem();
+			text.append(String.format("%s: %.1f%%  ", lang, langManager.getCompleteness(langManager.getLanguageIndex(lang))));
+		}
+		completenessLabel.setText(text.toString().trim());
+	}
+	
+	/**
+	 * Starts or stops watching the language folders, following the "Auto update" check box
+	 */
+	private void updateFileWatcher() {
+		if (fileWatcher != null) {
+			fileWatcher.stop();
+			fileWatcher = null;
+		}
+		if (!autoUpdateCheckBox.isSelected() || projectFolder == null)
+			return;
+		try {
+			fileWatcher = new LangFileWatcher(new LangFileWatcher.Listener() {
+				public void filesChanged(File directory) {
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							updateChangedFiles();
+						}
+					});
+				}
+			});
+			fileWatcher.watch(getLanguageFolder("editor"));
+			fileWatcher.watch(getLanguageFolder("engine"));
+			if (LangAssistant.INCLUDE_WEEV)
+				fileWatcher.watch(getLanguageFolder("weev"));
+			fileWatcher.start();
+		} catch (IOException e) {
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(MainWindow.this, "The language folders can't be watched", "Auto update", JOptionPane.ERROR_MESSAGE);
+			autoUpdateCheckBox.setSelected(false);
+		}
+	}
+
+	/**
+	 * Reads the language files changed on disk, keeping the selected languages
+	 */
+	private void updateChangedFiles() {
+		if (editorLangManager == null || engineLangManager == null)
+			return;
+		boolean changed = editorLangManager.update(getLanguageFolder("editor"));
+		changed = engineLangManager.update(getLanguageFolder("engine")) || changed;
+		if (LangAssistant.INCLUDE_WEEV && weevLangManager != null)
+			changed = weevLangManager.update(getLanguageFolder("weev")) || changed;
+		if (changed) {
+			reloadKeyTree();
+			langTableModel.fireTableDataChanged();
+		}
+	}
+
+	private String getLanguageFolder(String part) {
+		return projectFolder + File.separator + "i18n" + File.separator + part;
+	}
+
+	/**
+	 * Closes the journals of the loaded managers
+	 *
+	 * @param keep if false, the edits not saved are discarded
+	 */
+	private void closeJournals(boolean keep) {
+		if (editorLangManager != null)
+			editorLangManager.closeJournal(keep);
+		if (engineLangManager != null)
+			engineLangManager.closeJournal(keep);
+		if (weevLangManager != null)
+			weevLangManager.closeJournal(keep);
+	}
+
+	/**
+	 * @return true if any of the loaded managers has changes to save
+	 */
+	private boolean hasUnsavedChanges() {
+		if (editorLangManager != null && editorLangManager.hasUnsavedChanges())
+			return true;
+		if (engineLangManager != null && engineLangManager.hasUnsavedChanges())
+			return true;
+		return LangAssistant.INCLUDE_WEEV && weevLangManager != null && weevLangManager.hasUnsavedChanges();
+	}
+
+	/**
+	 * @return the manager of the part selected in the combo, which may not be loaded yet
+	 */
+	private LangManager getSelectedLangManager() {
+		if (partComboBox.getSelectedIndex() == 0)
+			return engineLangManager;
+		if (partComboBox.getSelectedIndex() == 1)
+			return editorLangManager;
+		return weevLangManager;
+	}
+	
 	private void loadProyectFolder() {
 		JFileChooser fc = new JFileChooser();
 		fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
@@ -403,6 +1064,7 @@ public class MainWindow extends JFrame {
 			if (isProyectFolder) {
 				projectFolder = selected.getAbsolutePath();
 				loadFileContents(false);
+				updateFileWatcher();
 			} else
 				JOptionPane.showMessageDialog(MainWindow.this, "The folder isn't the <e-Adventure> proyect folder", "Wrong folder", JOptionPane.ERROR_MESSAGE);
 		}
@@ -410,20 +1072,26 @@ public class MainWindow extends JFrame {
 	
 	private void loadFileContents(boolean update) {
 		if (projectFolder != null) {
-			String editorFiles = projectFolder + File.separator + "i18n" + File.separator + "editor";
-			String engineFiles = projectFolder + File.separator + "i18n" + File.separator + "engine";
-			String weevFiles = projectFolder + File.separator + "i18n" + File.separator + "weev";
+			String editorFiles = getLanguageFolder("editor");
+			String engineFiles = getLanguageFolder("engine");
+			String weevFiles = getLanguageFolder("weev");
 			if (!update || editorLangManager == null || engineLangManager == null) { 
-				editorLangManager = new LangManager(editorFiles);
-				engineLangManager = new LangManager(engineFiles);
-				if (LangAssistant.INCLUDE_WEEV)
-					weevLangManager = new LangManager(weevFiles);
+				closeJournals(true);
+				LangManager[] managers;
+				if (LangAssistant.INCLUDE_WEEV) {
+					managers = LangManager.load(true, editorFiles, engineFiles, weevFiles);
+					weevLangManager = managers[2];
+				} else
+					managers = LangManager.load(true, editorFiles, engineFiles);
+				editorLangManager = managers[0];
+				engineLangManager = managers[1];
 			} else {
 				editorLangManager.update(editorFiles);
 				engineLangManager.update(engineFiles);
 				if (LangAssistant.INCLUDE_WEEV)
 					weevLangManager.update(weevFiles);
 			}
+			poolLabel.setText(StringPool.getReport());
 			
 			if (partComboBox.getSelectedIndex() == 1) {
 				langTableModel.setLangManager(editorLangManager);
@@ -438,6 +1106,10 @@ public class MainWindow extends JFrame {
 				languageComboBox[0].setModel(new DefaultComboBoxModel(weevLangManager.getLangIDs()));
 				languageComboBox[1].setModel(new DefaultComboBoxModel(weevLangManager.getLangIDs()));
 			}
+			if (getSelectedLangManager() != null)
+				getSelectedLangManager().setModifiedOnly(modifiedOnlyCheckBox.isSelected());
+			keyTreeModel.setLangManager(getSelectedLangManager());
+			startSearch();
 			languageComboBox[0].setSelectedIndex(0);
 			languageComboBox[1].setSelectedIndex(1);
 		}
@@ -0,0 +1,205 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Gettext PO files, with the values of a source and a target language. Each
+ * key is the context of a message whose id is the source value and whose
+ * string is the target value; messages without context use their id as key.
+ * Fuzzy and empty translations are read as missing values, and so are the
+ * empty ids of messages with context, which are written for the keys without
+ * source value. The header has the target language, and the source language
+ * in an X-Source-Language field.
+ */
+public class PoFormat implements LangFormat {
+
+	public String getName() {
+		return "po";
+	}
+
+	public String getExtension() {
+		return "po";
+	}
+
+	public int getLanguageCount() {
+		return 2;
+	}
+
+	public void read(InputStream in, String[] languages, Handler handler) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 64 * 1024);
+		Message message = new Message();
+		boolean started = false;
+		int number = 0;
+		StringBuilder current = null;
+		for (String line = reader.readLine(); ; line = reader.readLine()) {
+			number++;
+			if (line != null)
+				line = line.trim();
+			if (line == null || message.msgstr != null && (line.startsWith("#") || line.startsWith("msgctxt") || line.startsWith("msgid "))) {
+				if (message.msgid != null && message.msgstr != null) {
+					boolean header = message.context == null && message.msgid.length() == 0;
+					if (!started)
+						handler.languages(readHeader(header ? message.msgstr.toString() : "", languages));
+					started = true;
+					if (!header) {
+						String source = message.msgid.length() == 0 ? null : message.msgid.toString();
+						String target = message.fuzzy || message.msgstr.length() == 0 ? null : message.msgstr.toString();
+						handler.entry(message.context != null ? message.context.toString() : message.msgid.toString(), new String[] {source, target});
+					}
+				}
+				if (line == null)
+					break;
+				message = new Message();
+				current = null;
+			}
+			if (line.length() == 0 || line.startsWith("#~"))
+				continue;
+			if (line.startsWith("#")) {
+				if (line.startsWith("#,") && line.contains("fuzzy"))
+					message.fuzzy = true;
+				continue;
+			}
+			if (line.startsWith("\"")) {
+				if (current == null)
+					throw new IOException("String without keyword at line " + number);
+				unquote(line, current, number);
+				continue;
+			}
+			int space = line.indexOf(' ');
+			if (space == -1)
+				throw new IOException("Malformed line " + number);
+			String name = line.substring(0, space);
+			current = new StringBuilder();
+			if (name.equals("msgctxt"))
+				message.context = current;
+			else if (name.equals("msgid"))
+				message.msgid = current;
+			else if (name.equals("msgstr") || name.equals("msgstr[0]"))
+				message.msgstr = current;
+			else if (!name.equals("msgid_plural") && !name.startsWith("msgstr["))
+				throw new IOException("Unknown keyword " + name + " at line " + number);
+			unquote(line.substring(space + 1).trim(), current, number);
+		}
+		if (!started)
+			handler.languages(readHeader("", languages));
+	}
+
+	private static class Message {
+
+		StringBuilder context;
+
+		StringBuilder msgid;
+
+		StringBuilder msgstr;
+
+		boolean fuzzy;
+	}
+
+	/**
+	 * Takes the languages from the header, or from the ones given when it doesn't have them
+	 */
+	private static String[] readHeader(String header, String[] languages) {
+		String[] identifiers = {languages.length > 0 ? languages[0] : null, languages.length > 1 ? languages[1] : null};
+		for (String field : header.split("\n")) {
+			int colon = field.indexOf(':');
+			if (colon == -1)
+				continue;
+			String name = field.substring(0, colon).trim();
+			String value = field.substring(colon + 1).trim();
+			if (name.equals("X-Source-Language") && value.length() > 0)
+				identifiers[0] = value;
+			else if (name.equals("Language") && value.length() > 0)
+				identifiers[1] = value;
+		}
+		return identifiers;
+	}
+
+	private static void unquote(String quoted, StringBuilder text, int number) throws IOException {
+		if (quoted.length() < 2 || quoted.charAt(0) != '"' || quoted.charAt(quoted.length() - 1) != '"')
+			throw new IOException("Malformed string at line " + number);
+		for (int i = 1; i < quoted.length() - 1; i++) {
+			char c = quoted.charAt(i);
+			if (c != '\\' || i + 2 == quoted.length()) {
+				text.append(c);
+				continue;
+			}
+			c = quoted.charAt(++i);
+			if (c == 'n')
+				text.append('\n');
+			else if (c == 't')
+				text.append('\t');
+			else if (c == 'r')
+				text.append('\r');
+			else
+				text.append(c);
+		}
+	}
+
+	public EntryWriter start(OutputStream out, String[] languages, String comment) throws IOException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 64 * 1024);
+		if (comment != null)
+			writer.write("# " + comment.replace("\n", "\n# ") + "\n");
+		writer.write("msgid \"\"\nmsgstr \"\"\n");
+		writer.write("\"Content-Type: text/plain; charset=UTF-8\\n\"\n");
+		writer.write("\"Content-Transfer-Encoding: 8bit\\n\"\n");
+		writer.write("\"Language: " + escape(languages[1]) + "\\n\"\n");
+		writer.write("\"X-Source-Language: " + escape(languages[0]) + "\\n\"\n");
+		return new EntryWriter() {
+			public void entry(String key, String[] values) throws IOException {
+				writer.write('\n');
+				write(writer, "msgctxt", key);
+				write(writer, "msgid", values[0] != null ? values[0] : "");
+				write(writer, "msgstr", values[1] != null ? values[1] : "");
+			}
+
+			public void end() throws IOException {
+				writer.flush();
+			}
+		};
+	}
+
+	/**
+	 * Writes a keyword and its string, a line of the string per line of the file
+	 */
+	private static void write(Writer writer, String keyword, String text) throws IOException {
+		writer.write(keyword);
+		int newline = text.indexOf('\n');
+		if (newline == -1 || newline == text.length() - 1) {
+			writer.write(" \"" + escape(text) + "\"\n");
+			return;
+		}
+		writer.write(" \"\"\n");
+		int start = 0;
+		while (start < text.length()) {
+			int end = text.indexOf('\n', start);
+			end = end == -1 ? text.length() : end + 1;
+			writer.write("\"" + escape(text.substring(start, end)) + "\"\n");
+			start = end;
+		}
+	}
+
+	private static String escape(String text) {
+		StringBuilder escaped = new StringBuilder(text.length() + 8);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\n')
+				escaped.append("\\n");
+			else if (c == '\t')
+				escaped.append("\\t");
+			else if (c == '\r')
+				escaped.append("\\r");
+			else if (c == '"' || c == '\\')
+				escaped.append('\\').append(c);
+			else
+				escaped.append(c);
+		}
+		return escaped.toString();
+	}
+}
@@ -0,0 +1,206 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Java .properties files, with the values of one language, read and written
+ * as {@link java.util.Properties#load(InputStream)} and
+ * {@link java.util.Properties#store(OutputStream, String)} do, in ISO 8859-1
+ * with the other characters escaped
+ */
+public class PropertiesFormat implements LangFormat {
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	public String getName() {
+		return "properties";
+	}
+
+	public String getExtension() {
+		return "properties";
+	}
+
+	public int getLanguageCount() {
+		return 1;
+	}
+
+	public void read(InputStream in, String[] languages, Handler handler) throws IOException {
+		handler.languages(languages);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "ISO-8859-1"), 64 * 1024);
+		StringBuilder line = new StringBuilder();
+		StringBuilder text = new StringBuilder();
+		while (readLine(reader, line)) {
+			int length = line.length();
+			int end = 0;
+			while (end < length) {
+				char c = line.charAt(end);
+				if (c == '\\')
+					end++;
+				else if (c == '=' || c == ':' || isWhitespace(c))
+					break;
+				end++;
+			}
+			int start = Math.min(end, length);
+			while (start < length && isWhitespace(line.charAt(start)))
+				start++;
+			if (start < length && (line.charAt(start) == '=' || line.charAt(start) == ':'))
+				start++;
+			while (start < length && isWhitespace(line.charAt(start)))
+				start++;
+			String key = unescape(line, 0, Math.min(end, length), text);
+			handler.entry(key, new String[] {unescape(line, start, length, text)});
+		}
+	}
+
+	/**
+	 * Reads a logical line, joining the lines ended with a backslash and
+	 * skipping the blank lines and the comments
+	 *
+	 * @return false at the end of the file
+	 */
+	private static boolean readLine(BufferedReader reader, StringBuilder line) throws IOException {
+		line.setLength(0);
+		boolean continued = false;
+		for (String physical = reader.readLine(); physical != null; physical = reader.readLine()) {
+			int start = 0;
+			while (start < physical.length() && isWhitespace(physical.charAt(start)))
+				start++;
+			if (!continued && (start == physical.length() || physical.charAt(start) == '#' || physical.charAt(start) == '!'))
+				continue;
+			line.append(physical, start, physical.length());
+			int backslashes = 0;
+			for (int i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; i--)
+				backslashes++;
+			if (backslashes % 2 == 0)
+				return true;
+			line.setLength(line.length() - 1);
+			continued = true;
+		}
+		return continued;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\f';
+	}
+
+	private static String unescape(CharSequence line, int start, int end, StringBuilder text) throws IOException {
+		text.setLength(0);
+		for (int i = start; i < end; i++) {
+			char c = line.charAt(i);
+			if (c != '\\' || i + 1 == end) {
+				text.append(c);
+				continue;
+			}
+			c = line.charAt(++i);
+			if (c == 'u') {
+				if (i + 4 >= end)
+					throw new IOException("Malformed \\uxxxx escape in " + line);
+				try {
+					text.append((char) Integer.parseInt(line.subSequence(i + 1, i + 5).toString(), 16));
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed \\uxxxx escape in " + line);
+				}
+				i += 4;
+			} else if (c == 't')
+				text.append('\t');
+			else if (c == 'n')
+				text.append('\n');
+			else if (c == 'r')
+				text.append('\r');
+			else if (c == 'f')
+				text.append('\f');
+			else
+				text.append(c);
+		}
+		return text.toString();
+	}
+
+	public EntryWriter start(OutputStream out, String[] languages, String comment) throws IOException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(out, "ISO-8859-1"), 64 * 1024);
+		if (comment != null) {
+			writer.write('#');
+			for (int i = 0; i < comment.length(); i++) {
+				char c = comment.charAt(i);
+				if (c == '\n')
+					writer.write("\n#");
+				else if (c != '\r')
+					writeChar(writer, c);
+			}
+			writer.write('\n');
+		}
+		return new EntryWriter() {
+			public void entry(String key, String[] values) throws IOException {
+				if (values[0] == null)
+					return;
+				escape(writer, key, true);
+				writer.write('=');
+				escape(writer, values[0], false);
+				writer.write('\n');
+			}
+
+			public void end() throws IOException {
+				writer.flush();
+			}
+		};
+	}
+
+	/**
+	 * Writes a text escaping the characters that aren't printable ASCII, and
+	 * the separators, comment marks and spaces that would be lost
+	 */
+	private static void escape(Writer writer, String text, boolean key) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case ' ':
+				if (key || i == 0)
+					writer.write('\\');
+				writer.write(' ');
+				break;
+			case '\t':
+				writer.write("\\t");
+				break;
+			case '\n':
+				writer.write("\\n");
+				break;
+			case '\r':
+				writer.write("\\r");
+				break;
+			case '\f':
+				writer.write("\\f");
+				break;
+			case '=':
+			case ':':
+			case '#':
+			case '!':
+			case '\\':
+				writer.write('\\');
+				writer.write(c);
+				break;
+			default:
+				writeChar(writer, c);
+			}
+		}
+	}
+
+	/**
+	 * Writes a character, as a unicode escape if it isn't printable ASCII
+	 */
+	private static void writeChar(Writer writer, char c) throws IOException {
+		if (c < 0x20 || c > 0x7e) {
+			writer.write("\\u");
+			writer.write(HEX[(c >> 12) & 0xF]);
+			writer.write(HEX[(c >> 8) & 0xF]);
+			writer.write(HEX[(c >> 4) & 0xF]);
+			writer.write(HEX[c & 0xF]);
+		} else
+			writer.write(c);
+	}
+}
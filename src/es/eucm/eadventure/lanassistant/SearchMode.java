@@ -0,0 +1,39 @@
+package es.eucm.eadventure.lanassistant;
+
+/**
+ * The ways a search text can be matched against the keys and values
+ */
+public enum SearchMode {
+
+	/**
+	 * The text appears in the key or value, ignoring case
+	 */
+	PLAIN("Plain"),
+
+	/**
+	 * The text appears in the key or value, ignoring case and accents
+	 */
+	IGNORE_ACCENTS("Ignore accents"),
+
+	/**
+	 * The text is a regular expression found in the key or value, ignoring case
+	 */
+	REGEX("Regular expression"),
+
+	/**
+	 * The text appears in the key or value with a few typing errors, ignoring
+	 * case and accents
+	 */
+	FUZZY("Fuzzy");
+
+	private String name;
+
+	private SearchMode(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,169 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Pool of the key and value strings shared by all the languages and all the
+ * {@link LangManager}s, so that equal strings read from different files, or
+ * typed in different places, are kept once. Strings are weakly referenced,
+ * so the pool never keeps alive a string nothing else uses.
+ * <p>
+ * The pool is split in stripes with their own lock and their own counters,
+ * because the language files are read from several threads.
+ * <p>
+ * The memory saved is measured for each load of language files, between
+ * {@link #startLoad()} and {@link #finishLoad()}: the first lookup of a
+ * string in a load keeps one copy, and only the later ones are counted as
+ * shared. So the strings already pooled by an earlier load, or by a load of
+ * the same files, aren't counted again.
+ */
+public class StringPool {
+
+	private static final int STRIPES = 16;
+
+	private static final Stripe[] stripes = new Stripe[STRIPES];
+
+	/**
+	 * Number of loads started, which tells the first lookup of a string in the current load
+	 */
+	private static volatile int loads;
+
+	/**
+	 * Bytes of the duplicate strings the last load shared
+	 */
+	private static volatile long lastLoadSavedBytes;
+
+	static {
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new Stripe();
+	}
+
+	/**
+	 * @param string a string, or null
+	 * @return the pooled string equal to the given one, which is pooled if there was none
+	 */
+	public static String intern(String string) {
+		if (string == null)
+			return null;
+		int h = string.hashCode();
+		Stripe stripe = stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+		synchronized (stripe) {
+			Entry entry = stripe.strings.get(string);
+			String pooled = entry == null ? null : entry.get();
+			if (pooled == null) {
+				entry = new Entry(string);
+				stripe.strings.put(string, entry);
+				pooled = string;
+			}
+			stripe.lookups++;
+			if (pooled != string)
+				stripe.hits++;
+			int load = loads;
+			if (entry.load == load)
+				stripe.loadSavedBytes += estimateSize(string);
+			else
+				entry.load = load;
+			return pooled;
+		}
+	}
+
+	/**
+	 * Estimates the heap used by a string: the object, and the array with
+	 * one byte per character if they are all Latin-1 and two otherwise,
+	 * each rounded to 8 bytes
+	 */
+	private static long estimateSize(String string) {
+		int bytesPerChar = 1;
+		for (int i = 0; i < string.length() && bytesPerChar == 1; i++)
+			if (string.charAt(i) > 0xFF)
+				bytesPerChar = 2;
+		return 24 + ((16 + string.length() * bytesPerChar + 7) & ~7);
+	}
+
+	/**
+	 * @return the number of different strings in the pool
+	 */
+	public static int size() {
+		int size = 0;
+		for (Stripe stripe : stripes)
+			synchronized (stripe) {
+				size += stripe.strings.size();
+			}
+		return size;
+	}
+
+	/**
+	 * Starts measuring the memory saved by a load of language files
+	 */
+	public static synchronized void startLoad() {
+		for (Stripe stripe : stripes)
+			synchronized (stripe) {
+				stripe.loadSavedBytes = 0;
+			}
+		loads++;
+	}
+
+	/**
+	 * Keeps the memory saved by the load, as given by {@link #getLastLoadSavedBytes()}
+	 */
+	public static void finishLoad() {
+		long savedBytes = 0;
+		for (Stripe stripe : stripes)
+			synchronized (stripe) {
+				savedBytes += stripe.loadSavedBytes;
+			}
+		lastLoadSavedBytes = savedBytes;
+	}
+
+	/**
+	 * @return about how many bytes of duplicate strings the last load of
+	 *         language files didn't keep, since it shared one copy of each
+	 */
+	public static long getLastLoadSavedBytes() {
+		return lastLoadSavedBytes;
+	}
+
+	/**
+	 * @return a line with the use of the pool and the memory shared by the last load
+	 */
+	public static String getReport() {
+		long lookups = 0;
+		long hits = 0;
+		for (Stripe stripe : stripes)
+			synchronized (stripe) {
+				lookups += stripe.lookups;
+				hits += stripe.hits;
+			}
+		return "String pool: " + size() + " strings, about " + (lastLoadSavedBytes / 1024) + " KB of duplicates shared by the last load, " + hits + " of " + lookups + " lookups since the start found a pooled string";
+	}
+
+	/**
+	 * A pooled string, with the last load that looked it up
+	 */
+	private static class Entry extends WeakReference<String> {
+
+		int load = -1;
+
+		Entry(String string) {
+			super(string);
+		}
+	}
+
+	/**
+	 * Part of the pool with its own lock, which also guards its counters
+	 */
+	private static class Stripe {
+
+		final WeakHashMap<String, Entry> strings = new WeakHashMap<String, Entry>();
+
+		long lookups;
+
+		long hits;
+
+		/**
+		 * Bytes of the duplicate strings shared since the current load started
+		 */
+		long loadSavedBytes;
+	}
+}
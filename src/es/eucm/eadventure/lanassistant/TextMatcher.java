@@ -0,0 +1,192 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.text.Normalizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches the search text against keys and values in one of the
+ * {@link SearchMode}s. Everything that depends only on the search text, as
+ * the compiled regular expression, is prepared once when the matcher is
+ * created, so checking a key or value doesn't allocate anything.
+ * <p>
+ * Modes that ignore accents work on the normalized form of the keys and
+ * values given by {@link #normalize(String)}, which the manager keeps so it
+ * isn't computed again on every search. A matcher is not thread safe.
+ */
+public class TextMatcher {
+
+	/**
+	 * Longest text that fuzzy searches can match, one bit per character
+	 */
+	private static final int MAX_FUZZY_LENGTH = 63;
+
+	private SearchMode mode;
+
+	private String text;
+
+	private String normalizedText;
+
+	private Matcher regex;
+
+	/**
+	 * Errors allowed by fuzzy searches
+	 */
+	private int distance;
+
+	/**
+	 * Characters of the normalized text and, for each of them, the bits of
+	 * the positions where it appears, in an open addressing table
+	 */
+	private char[] maskChars;
+
+	private long[] masks;
+
+	/**
+	 * States of the automaton, one word per number of errors
+	 */
+	private long[] states;
+
+	/**
+	 * @throws java.util.regex.PatternSyntaxException if the mode is
+	 *         {@link SearchMode#REGEX} and the text isn't a valid expression
+	 */
+	public TextMatcher(String text, SearchMode mode) {
+		this.text = text;
+		this.normalizedText = normalize(text);
+		this.mode = mode;
+		if (mode == SearchMode.REGEX)
+			regex = Pattern.compile(text, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE).matcher("");
+		else if (mode == SearchMode.FUZZY) {
+			if (normalizedText.length() > MAX_FUZZY_LENGTH)
+				this.mode = SearchMode.IGNORE_ACCENTS;
+			else
+				prepareFuzzy();
+		}
+	}
+
+	/**
+	 * Normalizes a key or value for the searches that ignore accents: the
+	 * accents and other combining marks are removed and the case is folded
+	 * as in {@link TrigramIndex#fold(char)}.
+	 *
+	 * @return the normalized text, the same string if normalizing doesn't change it
+	 */
+	public static String normalize(String string) {
+		if (string == null)
+			return null;
+		boolean normal = true;
+		for (int i = 0; i < string.length() && normal; i++) {
+			char c = string.charAt(i);
+			normal = c < 0x80 && (c < 'A' || c > 'Z');
+		}
+		if (normal)
+			return string;
+		String decomposed = Normalizer.normalize(string, Normalizer.Form.NFD);
+		StringBuilder normalized = new StringBuilder(decomposed.length());
+		for (int i = 0; i < decomposed.length(); i++) {
+			char c = decomposed.charAt(i);
+			int type = Character.getType(c);
+			if (type != Character.NON_SPACING_MARK && type != Character.ENCLOSING_MARK && type != Character.COMBINING_SPACING_MARK)
+				normalized.append(TrigramIndex.fold(c));
+		}
+		return string.contentEquals(normalized) ? string : normalized.toString();
+	}
+
+	public SearchMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return the text to look up in the {@link TrigramIndex} to find the
+	 *         candidates to match, or null if the mode can't use the index
+	 */
+	public String getIndexText() {
+		if (mode == SearchMode.PLAIN || mode == SearchMode.IGNORE_ACCENTS)
+			return normalizedText;
+		return null;
+	}
+
+	/**
+	 * @return true if {@link #matches(String, String)} needs the normalized string
+	 */
+	public boolean usesNormalizedText() {
+		return mode == SearchMode.IGNORE_ACCENTS || mode == SearchMode.FUZZY;
+	}
+
+	/**
+	 * @param string a key or value, or null
+	 * @param normalized the normalized string, if {@link #usesNormalizedText()}
+	 * @return true if the search text is found in the string
+	 */
+	public boolean matches(String string, String normalized) {
+		if (string == null)
+			return false;
+		switch (mode) {
+		case REGEX:
+			return regex.reset(string).find();
+		case IGNORE_ACCENTS:
+			return normalized.contains(normalizedText);
+		case FUZZY:
+			return matchesFuzzy(normalized);
+		default:
+			for (int i = 0; i + text.length() <= string.length(); i++)
+				if (string.regionMatches(true, i, text, 0, text.length()))
+					return true;
+			return false;
+		}
+	}
+
+	private void prepareFuzzy() {
+		int length = normalizedText.length();
+		distance = length <= 3 ? 0 : length <= 7 ? 1 : 2;
+		states = new long[distance + 1];
+		int size = 128;
+		while (size < length * 2)
+			size *= 2;
+		maskChars = new char[size];
+		masks = new long[size];
+		for (int i = 0; i < length; i++) {
+			int slot = findMask(normalizedText.charAt(i));
+			maskChars[slot] = normalizedText.charAt(i);
+			masks[slot] |= 1L << i;
+		}
+	}
+
+	private int findMask(char c) {
+		int mask = maskChars.length - 1;
+		int slot = (c * 0x9E3779B9 >>> 16) & mask;
+		while (masks[slot] != 0 && maskChars[slot] != c)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/**
+	 * Runs the bit parallel simulation of the Levenshtein automaton of the
+	 * search text (the algorithm of Wu and Manber), which finds if some part
+	 * of the string is at most {@link #distance} insertions, deletions or
+	 * substitutions away from the text
+	 */
+	private boolean matchesFuzzy(String normalized) {
+		int length = normalizedText.length();
+		if (length <= distance)
+			return true;
+		long accept = 1L << (length - 1);
+		for (int d = 0; d <= distance; d++)
+			states[d] = (1L << d) - 1;
+		for (int i = 0; i < normalized.length(); i++) {
+			int slot = findMask(normalized.charAt(i));
+			long charMask = masks[slot];
+			long previous = states[0];
+			states[0] = ((previous << 1) | 1) & charMask;
+			for (int d = 1; d <= distance; d++) {
+				long old = states[d];
+				states[d] = (((old << 1) | 1) & charMask) | previous | (previous << 1) | 1 | (states[d - 1] << 1);
+				previous = old;
+			}
+			if ((states[distance] & accept) != 0)
+				return true;
+		}
+		return false;
+	}
+}
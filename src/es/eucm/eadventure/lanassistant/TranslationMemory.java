@@ -0,0 +1,258 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translation memory over the values of one language, used to suggest a
+ * translation for a value from the translations of the values most similar
+ * to it.
+ * <p>
+ * Values are compared by the trigrams of their normalized text. Each value
+ * has a MinHash signature, whose matching positions estimate the Jaccard
+ * similarity of the trigrams, and the signatures are split in bands which
+ * are hashed to buckets (locality sensitive hashing), so only the values that
+ * share a bucket with the searched text are compared with it.
+ */
+public class TranslationMemory {
+
+	/**
+	 * Number of hash functions of the signatures
+	 */
+	private static final int HASHES = 32;
+
+	/**
+	 * Hashes in each band, so there are HASHES / ROWS bands
+	 */
+	private static final int ROWS = 2;
+
+	/**
+	 * Similarity below which values aren't suggested
+	 */
+	private static final double MIN_SIMILARITY = 0.3;
+
+	private static final long[] MULTIPLIERS = new long[HASHES];
+
+	private static final long[] INCREMENTS = new long[HASHES];
+
+	static {
+		long seed = 0x2545F4914F6CDD1DL;
+		for (int i = 0; i < HASHES; i++) {
+			seed = mix(seed + i);
+			MULTIPLIERS[i] = seed | 1;
+			seed = mix(seed);
+			INCREMENTS[i] = seed;
+		}
+	}
+
+	/**
+	 * A value similar to a searched one, and its translation
+	 */
+	public static class Suggestion {
+
+		private int keyId;
+
+		private double similarity;
+
+		private String source;
+
+		private String translation;
+
+		private Suggestion(int keyId, double similarity, String source, String translation) {
+			this.keyId = keyId;
+			this.similarity = similarity;
+			this.source = source;
+			this.translation = translation;
+		}
+
+		public int getKeyId() {
+			return keyId;
+		}
+
+		/**
+		 * @return the estimated similarity, from 0 to 1
+		 */
+		public double getSimilarity() {
+			return similarity;
+		}
+
+		public String getSource() {
+			return source;
+		}
+
+		public String getTranslation() {
+			return translation;
+		}
+
+		@Override
+		public String toString() {
+			return Math.round(similarity * 100) + "%  " + source + "  \u2192  " + translation;
+		}
+	}
+
+	private Language language;
+
+	/**
+	 * Signature of the value of each key id, or null if it has no value
+	 */
+	private int[][] signatures;
+
+	/**
+	 * Ids of the keys in each bucket, the first element being the number of ids
+	 */
+	private Map<Long, int[]> buckets;
+
+	/**
+	 * @param language the language of the values
+	 */
+	public TranslationMemory(Language language) {
+		this.language = language;
+		this.signatures = new int[64][];
+		this.buckets = new HashMap<Long, int[]>();
+	}
+
+	/**
+	 * Adds, changes or removes the value of a key
+	 *
+	 * @param keyId the id of the key
+	 * @param value the new value, or null if the key has no value now
+	 */
+	public void update(int keyId, String value) {
+		if (keyId < signatures.length && signatures[keyId] != null) {
+			int[] signature = signatures[keyId];
+			for (int band = 0; band < HASHES / ROWS; band++)
+				removeFromBucket(bucket(signature, band), keyId);
+			signatures[keyId] = null;
+		}
+		if (value == null || value.equals(""))
+			return;
+		if (keyId >= signatures.length)
+			signatures = Arrays.copyOf(signatures, Math.max(keyId + 1, signatures.length * 2));
+		int[] signature = signature(value);
+		signatures[keyId] = signature;
+		for (int band = 0; band < HASHES / ROWS; band++)
+			addToBucket(bucket(signature, band), keyId);
+	}
+
+	/**
+	 * Finds the values most similar to a text that have a translation
+	 *
+	 * @param text the text to translate
+	 * @param excludedKeyId a key whose value mustn't be suggested, usually the one being translated, or -1
+	 * @param target the language of the translations
+	 * @param max the maximum number of suggestions
+	 * @return the suggestions, the most similar first
+	 */
+	public List<Suggestion> suggest(String text, int excludedKeyId, Language target, int max) {
+		List<Suggestion> suggestions = new ArrayList<Suggestion>();
+		if (text == null || text.equals(""))
+			return suggestions;
+		int[] signature = signature(text);
+		BitSet seen = new BitSet();
+		for (int band = 0; band < HASHES / ROWS; band++) {
+			int[] ids = buckets.get(bucket(signature, band));
+			if (ids == null)
+				continue;
+			for (int i = 1; i <= ids[0]; i++) {
+				int keyId = ids[i];
+				if (keyId == excludedKeyId || seen.get(keyId))
+					continue;
+				seen.set(keyId);
+				if (!target.isTranslated(keyId))
+					continue;
+				double similarity = similarity(signature, signatures[keyId]);
+				if (similarity >= MIN_SIMILARITY)
+					suggestions.add(new Suggestion(keyId, similarity, null, null));
+			}
+		}
+		Collections.sort(suggestions, new Comparator<Suggestion>() {
+			public int compare(Suggestion s1, Suggestion s2) {
+				return Double.compare(s2.similarity, s1.similarity);
+			}
+		});
+		if (suggestions.size() > max)
+			suggestions = new ArrayList<Suggestion>(suggestions.subList(0, max));
+		for (Suggestion suggestion : suggestions) {
+			suggestion.source = language.getValue(suggestion.keyId);
+			suggestion.translation = target.getValue(suggestion.keyId);
+		}
+		return suggestions;
+	}
+
+	private static double similarity(int[] signature1, int[] signature2) {
+		int equal = 0;
+		for (int i = 0; i < HASHES; i++)
+			if (signature1[i] == signature2[i])
+				equal++;
+		return equal / (double) HASHES;
+	}
+
+	/**
+	 * Computes the MinHash signature of the trigrams of the normalized text,
+	 * or of the whole text if it is shorter
+	 */
+	private static int[] signature(String value) {
+		String text = TextMatcher.normalize(value);
+		int[] signature = new int[HASHES];
+		Arrays.fill(signature, Integer.MAX_VALUE);
+		int count = Math.max(1, text.length() - 2);
+		for (int i = 0; i < count; i++) {
+			long shingle = 0;
+			for (int j = i; j < Math.min(i + 3, text.length()); j++)
+				shingle = (shingle << 16) | text.charAt(j);
+			long hash = mix(shingle);
+			for (int h = 0; h < HASHES; h++) {
+				int minHash = (int) ((hash * MULTIPLIERS[h] + INCREMENTS[h]) >>> 33);
+				if (minHash < signature[h])
+					signature[h] = minHash;
+			}
+		}
+		return signature;
+	}
+
+	private static Long bucket(int[] signature, int band) {
+		long hash = band;
+		for (int i = band * ROWS; i < (band + 1) * ROWS; i++)
+			hash = mix(hash * 31 + signature[i]);
+		return hash;
+	}
+
+	private void addToBucket(Long bucket, int keyId) {
+		int[] ids = buckets.get(bucket);
+		if (ids == null)
+			ids = new int[4];
+		else if (ids[0] + 1 == ids.length)
+			ids = Arrays.copyOf(ids, ids.length * 2);
+		ids[++ids[0]] = keyId;
+		buckets.put(bucket, ids);
+	}
+
+	private void removeFromBucket(Long bucket, int keyId) {
+		int[] ids = buckets.get(bucket);
+		if (ids == null)
+			return;
+		for (int i = 1; i <= ids[0]; i++) {
+			if (ids[i] == keyId) {
+				ids[i] = ids[ids[0]--];
+				break;
+			}
+		}
+		if (ids[0] == 0)
+			buckets.remove(bucket);
+	}
+
+	private static long mix(long x) {
+		x ^= x >>> 33;
+		x *= 0xFF51AFD7ED558CCDL;
+		x ^= x >>> 33;
+		x *= 0xC4CEB9FE1A85EC53L;
+		x ^= x >>> 33;
+		return x;
+	}
+}
@@ -0,0 +1,152 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Inverted index from the trigrams (groups of three consecutive characters,
+ * ignoring case) of the keys and values of a {@link LangManager} to the ids of
+ * the keys where they appear.
+ * <p>
+ * A key can only contain a text if it has all the trigrams of the text, so a
+ * search only has to check the keys in the intersection of their lists. Texts
+ * are only ever added: a key whose value changed may stay in the list of a
+ * trigram it doesn't have anymore, which just makes it a candidate that the
+ * search discards.
+ */
+public class TrigramIndex {
+
+	/**
+	 * Bit set in every trigram, so that no trigram is 0, the empty slot
+	 */
+	private static final long MARK = 1L << 48;
+
+	/**
+	 * Open addressing hash table with the trigrams, three characters of 16 bits
+	 */
+	private long[] trigrams;
+
+	/**
+	 * Ids of the keys with the trigram of the same slot, possibly repeated and unsorted
+	 */
+	private int[][] lists;
+
+	private int[] counts;
+
+	private int size;
+
+	public TrigramIndex() {
+		this.trigrams = new long[1024];
+		this.lists = new int[1024][];
+		this.counts = new int[1024];
+	}
+
+	/**
+	 * Case folding used for the trigrams, which makes equal the characters
+	 * that {@link String#regionMatches(boolean, int, String, int, int)} takes
+	 * as equal when ignoring case
+	 */
+	public static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	/**
+	 * Adds the trigrams of a key or value
+	 *
+	 * @param id the id of the key
+	 * @param text the key or one of its values, or null
+	 */
+	public void add(int id, String text) {
+		if (text == null)
+			return;
+		long trigram = 0;
+		for (int i = 0; i < text.length(); i++) {
+			trigram = ((trigram << 16) | fold(text.charAt(i))) & 0xFFFFFFFFFFFFL;
+			if (i >= 2)
+				add(id, trigram | MARK);
+		}
+	}
+
+	private void add(int id, long trigram) {
+		int slot = find(trigram);
+		if (trigrams[slot] == 0) {
+			if ((size + 1) * 2 > trigrams.length) {
+				rehash();
+				slot = find(trigram);
+			}
+			trigrams[slot] = trigram;
+			lists[slot] = new int[4];
+			size++;
+		}
+		int count = counts[slot];
+		int[] list = lists[slot];
+		if (count > 0 && list[count - 1] == id)
+			return;
+		if (count == list.length)
+			lists[slot] = list = Arrays.copyOf(list, count * 2);
+		list[count] = id;
+		counts[slot] = count + 1;
+	}
+
+	/**
+	 * @param text the searched text, of three characters or more
+	 * @return the ids of the keys that may contain the text, ignoring case
+	 */
+	public BitSet candidates(String text) {
+		int[] slots = new int[text.length() - 2];
+		long trigram = 0;
+		for (int i = 0; i < text.length(); i++) {
+			trigram = ((trigram << 16) | fold(text.charAt(i))) & 0xFFFFFFFFFFFFL;
+			if (i >= 2) {
+				int slot = find(trigram | MARK);
+				if (trigrams[slot] == 0)
+					return new BitSet();
+				slots[i - 2] = slot;
+			}
+		}
+		int shortest = 0;
+		for (int i = 1; i < slots.length; i++)
+			if (counts[slots[i]] < counts[slots[shortest]])
+				shortest = i;
+		BitSet result = toBitSet(slots[shortest]);
+		for (int i = 0; i < slots.length && !result.isEmpty(); i++) {
+			if (slots[i] != slots[shortest])
+				result.and(toBitSet(slots[i]));
+		}
+		return result;
+	}
+
+	private BitSet toBitSet(int slot) {
+		BitSet ids = new BitSet();
+		int[] list = lists[slot];
+		for (int i = 0; i < counts[slot]; i++)
+			ids.set(list[i]);
+		return ids;
+	}
+
+	private int find(long trigram) {
+		int mask = trigrams.length - 1;
+		long h = trigram * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h >>> 32) & mask;
+		while (trigrams[slot] != 0 && trigrams[slot] != trigram)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void rehash() {
+		long[] oldTrigrams = trigrams;
+		int[][] oldLists = lists;
+		int[] oldCounts = counts;
+		trigrams = new long[oldTrigrams.length * 2];
+		lists = new int[trigrams.length][];
+		counts = new int[trigrams.length];
+		for (int i = 0; i < oldTrigrams.length; i++) {
+			if (oldTrigrams[i] != 0) {
+				int slot = find(oldTrigrams[i]);
+				trigrams[slot] = oldTrigrams[i];
+				lists[slot] = oldLists[i];
+				counts[slot] = oldCounts[i];
+			}
+		}
+	}
+}
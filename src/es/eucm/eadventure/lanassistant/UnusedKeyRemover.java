@@ -11,63 +11,57 @@ import java.util.List;
 
 public class UnusedKeyRemover {
 	
-	public static int unusedKeyRemover(String proyectFolder, LangManager langManager) {
-		if (proyectFolder == null)
-			return 0;
-		return parseFolder(proyectFolder, langManager);
-	}
-	
-	private static int parseFolder(String folder,
-			LangManager langManager) {
-		List<String> keysToRemove = new ArrayList<String>();
-		for (int i = 0; i < langManager.getKeyCount(); i++) {
-			String key = langManager.getKey(i);
+	/**
+	 * Finds the keys shown by a manager that don't appear in the Java files of
+	 * a folder, ignoring the numbers at the end of the keys. Each file is read
+	 * only once. The keys are read from a snapshot without values, so the scan
+	 * loads no language and can run in the background while the manager is
+	 * edited.
+	 *
+	 * @param folder the folder with the source code
+	 * @return the unused keys
+	 */
+	public static List<String> findUnusedKeys(String folder, LangManager langManager) {
+		LangSnapshot snapshot = langManager.snapshot();
+		List<String> sources = new ArrayList<String>();
+		readSources(new File(folder), sources);
+		List<String> unusedKeys = new ArrayList<String>();
+		for (int keyId : snapshot.getShownKeyIds()) {
+			String key = snapshot.getKeyName(keyId);
 			while (key.matches("[a-zA-Z.]*[0-9]+") && key.length() > 3) {
 				key = key.substring(0, key.length() - 1);
 			}
-			if (keyUsed(key, folder))
-				System.out.println("key " + langManager.getKey(i) + "(" + key + ") used");
-			else {
-				System.out.println("key " + langManager.getKey(i) + "(" + key + ") NOT used");
-//				int option = JOptionPane.showConfirmDialog(null, "Key " + langManager.getKey(i) + " unused", "Unused key", JOptionPane.YES_NO_OPTION);
-//				if (option == JOptionPane.YES_OPTION)
-					keysToRemove.add(langManager.getKey(i));
-			}
+			if (!keyUsed(key, sources))
+				unusedKeys.add(snapshot.getKeyName(keyId));
 		}
-		
-		new UnusedKeysFrame(keysToRemove, langManager);
-
-//		for (String key : keysToRemove)
-//			langManager.removeKey(key);
-		return keysToRemove.size();
+		return unusedKeys;
+	}
+	
+	private static boolean keyUsed(String key, List<String> sources) {
+		for (String source : sources)
+			if (source.contains(key))
+				return true;
+		return false;
 	}
 	
-	private static boolean keyUsed(String key, String fileName) {
-		File file = new File(fileName);
-		
+	private static void readSources(File file, List<String> sources) {
 		if (file.isDirectory()) {
 			for (File f : file.listFiles())
-				if (keyUsed(key, f.getAbsolutePath()))
-					return true;
-			return false;
+				readSources(f, sources);
 		}
 		else if (file.getAbsolutePath().endsWith("java"))
-			return parseFile(file, key);
-		
-		return false;
+			sources.add(readFile(file));
 	}
 	
-	private static boolean parseFile(File file, String key) {
+	private static String readFile(File file) {
+		StringBuilder contents = new StringBuilder();
 		try {
 			FileInputStream fis = new FileInputStream(file);
 			InputStreamReader isr = new InputStreamReader(fis);
 			BufferedReader br = new BufferedReader(isr);
-			isr.getEncoding();
 			
-			for (String temp = br.readLine(); temp != null; temp = br.readLine()) {
-				if (temp.contains(key))
-					return true;
-			}
+			for (String temp = br.readLine(); temp != null; temp = br.readLine())
+				contents.append(temp).append('\n');
 			
 			br.close();
 			isr.close();
@@ -77,8 +71,7 @@ public class UnusedKeyRemover {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		return false;
-		
+		return contents.toString();
 	}
 	
 
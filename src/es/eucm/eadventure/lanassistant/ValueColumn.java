@@ -0,0 +1,146 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.util.Arrays;
+
+/**
+ * The values of a {@link Language} indexed by key id, stored in chunks of
+ * fixed size so that a snapshot can share them.
+ * <p>
+ * A snapshot copies only the array of chunks. After it, a chunk is copied the
+ * first time one of its values changes, so the snapshot keeps the values it
+ * had while the column changes, at the cost of one chunk per chunk changed.
+ * <p>
+ * The values given by {@link TextMatcher#normalize(String)} are cached in the
+ * chunks too. They depend only on the values of the same chunk, so a snapshot
+ * read from another thread can fill them safely.
+ */
+public class ValueColumn {
+
+	private static final int CHUNK_SHIFT = 10;
+
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private Chunk[] chunks;
+
+	/**
+	 * Incremented by each snapshot. Chunks created in an older epoch may be
+	 * shared with a snapshot and aren't changed in place.
+	 */
+	private int epoch;
+
+	/**
+	 * If the column is a snapshot, which can't change
+	 */
+	private final boolean frozen;
+
+	private ValueColumn(Chunk[] chunks, int epoch, boolean frozen) {
+		this.chunks = chunks;
+		this.epoch = epoch;
+		this.frozen = frozen;
+	}
+
+	public ValueColumn() {
+		this(new Chunk[0], 0, false);
+	}
+
+	/**
+	 * @param values the values by key id
+	 */
+	public ValueColumn(String[] values) {
+		this(new Chunk[(values.length + CHUNK_MASK) >> CHUNK_SHIFT], 0, false);
+		for (int i = 0; i < chunks.length; i++) {
+			int from = i << CHUNK_SHIFT;
+			chunks[i] = new Chunk(Arrays.copyOfRange(values, from, from + CHUNK_SIZE), 0);
+		}
+	}
+
+	/**
+	 * @return the number of ids the column has room for
+	 */
+	public int length() {
+		return chunks.length << CHUNK_SHIFT;
+	}
+
+	public String get(int keyId) {
+		if (keyId < 0 || keyId >= length())
+			return null;
+		Chunk chunk = chunks[keyId >> CHUNK_SHIFT];
+		return chunk == null ? null : chunk.values[keyId & CHUNK_MASK];
+	}
+
+	public void set(int keyId, String value) {
+		if (frozen)
+			throw new UnsupportedOperationException("Snapshots can't change");
+		int index = keyId >> CHUNK_SHIFT;
+		if (index >= chunks.length)
+			chunks = Arrays.copyOf(chunks, Math.max(index + 1, chunks.length * 2));
+		Chunk chunk = chunks[index];
+		if (chunk == null)
+			chunk = chunks[index] = new Chunk(new String[CHUNK_SIZE], epoch);
+		else if (chunk.epoch != epoch)
+			chunk = chunks[index] = chunk.copy(epoch);
+		chunk.values[keyId & CHUNK_MASK] = value;
+		if (chunk.normalized != null)
+			chunk.normalized[keyId & CHUNK_MASK] = null;
+	}
+
+	/**
+	 * @return the normalized value, computed the first time it is asked for
+	 * @see TextMatcher#normalize(String)
+	 */
+	public String getNormalized(int keyId) {
+		if (keyId < 0 || keyId >= length())
+			return null;
+		Chunk chunk = chunks[keyId >> CHUNK_SHIFT];
+		if (chunk == null)
+			return null;
+		String value = chunk.values[keyId & CHUNK_MASK];
+		if (value == null)
+			return null;
+		String[] normalized = chunk.normalized;
+		if (normalized == null)
+			chunk.normalized = normalized = new String[CHUNK_SIZE];
+		String result = normalized[keyId & CHUNK_MASK];
+		if (result == null) {
+			result = TextMatcher.normalize(value);
+			normalized[keyId & CHUNK_MASK] = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @return a column with the values this one has now, which doesn't change
+	 *         when this one does and can be read from other threads
+	 */
+	public ValueColumn snapshot() {
+		if (frozen)
+			return this;
+		ValueColumn snapshot = new ValueColumn(chunks.clone(), epoch, true);
+		epoch++;
+		return snapshot;
+	}
+
+	private static class Chunk {
+
+		final String[] values;
+
+		final int epoch;
+
+		String[] normalized;
+
+		Chunk(String[] values, int epoch) {
+			this.values = values;
+			this.epoch = epoch;
+		}
+
+		Chunk copy(int epoch) {
+			Chunk copy = new Chunk(values.clone(), epoch);
+			String[] cache = normalized;
+			if (cache != null)
+				copy.normalized = cache.clone();
+			return copy;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * XLIFF 1.2 files, with the values of a source and a target language. Each key
+ * is a translation unit, whose source and target must be plain text. The
+ * identifiers of the languages are written with hyphens, as XLIFF expects,
+ * and read back with underscores. An empty source is read as a missing
+ * value, since a key without source value is written with an empty one.
+ */
+public class XliffFormat implements LangFormat {
+
+	public String getName() {
+		return "xliff";
+	}
+
+	public String getExtension() {
+		return "xlf";
+	}
+
+	public int getLanguageCount() {
+		return 2;
+	}
+
+	public void read(InputStream in, String[] languages, Handler handler) throws IOException {
+		try {
+			XMLStreamReader reader = LangFileReader.createReader(in);
+			try {
+				boolean started = false;
+				String key = null;
+				String[] values = null;
+				while (reader.hasNext()) {
+					int event = reader.next();
+					if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("trans-unit")) {
+						if (key != null)
+							handler.entry(key, values);
+						key = null;
+					}
+					if (event != XMLStreamConstants.START_ELEMENT)
+						continue;
+					String name = reader.getLocalName();
+					if (name.equals("file") && !started) {
+						String source = reader.getAttributeValue(null, "source-language");
+						String target = reader.getAttributeValue(null, "target-language");
+						handler.languages(new String[] {
+								source != null ? source.replace('-', '_') : languages.length > 0 ? languages[0] : null,
+								target != null ? target.replace('-', '_') : languages.length > 1 ? languages[1] : null});
+						started = true;
+					} else if (name.equals("trans-unit")) {
+						key = reader.getAttributeValue(null, "resname");
+						if (key == null)
+							key = reader.getAttributeValue(null, "id");
+						if (key == null)
+							throw new IOException("Translation unit without id at line " + reader.getLocation().getLineNumber());
+						values = new String[2];
+					} else if (key != null && name.equals("source")) {
+						String source = getText(reader);
+						values[0] = source.length() == 0 ? null : source;
+					} else if (key != null && name.equals("target"))
+						values[1] = getText(reader);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	private static String getText(XMLStreamReader reader) throws IOException, XMLStreamException {
+		int line = reader.getLocation().getLineNumber();
+		try {
+			return reader.getElementText();
+		} catch (XMLStreamException e) {
+			throw new IOException("Only plain text is supported in the translation unit at line " + line, e);
+		}
+	}
+
+	public EntryWriter start(OutputStream out, String[] languages, String comment) throws IOException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 64 * 1024);
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		writer.write("<xliff version=\"1.2\" xmlns=\"urn:oasis:names:tc:xliff:document:1.2\">\n");
+		writer.write("<file original=\"");
+		LangFileWriter.escape(writer, comment != null ? comment : "i18n", true);
+		writer.write("\" datatype=\"plaintext\" source-language=\"");
+		LangFileWriter.escape(writer, languages[0].replace('_', '-'), true);
+		writer.write("\" target-language=\"");
+		LangFileWriter.escape(writer, languages[1].replace('_', '-'), true);
+		writer.write("\">\n<body>\n");
+		return new EntryWriter() {
+			public void entry(String key, String[] values) throws IOException {
+				writer.write("<trans-unit id=\"");
+				LangFileWriter.escape(writer, key, true);
+				writer.write("\" xml:space=\"preserve\">\n<source>");
+				if (values[0] != null)
+					LangFileWriter.escape(writer, values[0], false);
+				writer.write("</source>\n");
+				if (values[1] != null) {
+					writer.write("<target>");
+					LangFileWriter.escape(writer, values[1], false);
+					writer.write("</target>\n");
+				}
+				writer.write("</trans-unit>\n");
+			}
+
+			public void end() throws IOException {
+				writer.write("</body>\n</file>\n</xliff>\n");
+				writer.flush();
+			}
+		};
+	}
+}
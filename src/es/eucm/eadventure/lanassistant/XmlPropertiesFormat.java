@@ -0,0 +1,55 @@
+package es.eucm.eadventure.lanassistant;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+/**
+ * The XML property files of the languages, with the values of one language
+ *
+ * @see LangFileReader
+ * @see LangFileWriter
+ */
+public class XmlPropertiesFormat implements LangFormat {
+
+	public String getName() {
+		return "xml";
+	}
+
+	public String getExtension() {
+		return "xml";
+	}
+
+	public int getLanguageCount() {
+		return 1;
+	}
+
+	public void read(InputStream in, final String[] languages, final Handler handler) throws IOException {
+		handler.languages(languages);
+		LangFileReader.read(in, new LangFileReader.Handler() {
+			public void comment(String comment) {
+			}
+
+			public void entry(String key, String value) {
+				handler.entry(key, new String[] {value});
+			}
+		});
+	}
+
+	public EntryWriter start(OutputStream out, String[] languages, String comment) throws IOException {
+		final LangFileWriter writer = new LangFileWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 64 * 1024));
+		writer.start(comment);
+		return new EntryWriter() {
+			public void entry(String key, String[] values) throws IOException {
+				if (values[0] != null)
+					writer.entry(key, values[0]);
+			}
+
+			public void end() throws IOException {
+				writer.end();
+			}
+		};
+	}
+}